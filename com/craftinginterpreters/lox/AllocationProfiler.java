@@ -0,0 +1,89 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Which lines of a script allocate, by kind of Lox object:
+    jlox --profile-alloc script.lox
+Allocations are already counted against the Quota in batches of bytes.
+With the profiler on the batches are small (-Dlox.allocSample bytes, 4096
+by default, jittered so a loop allocating the same sizes doesn't always
+land on the same object) and the allocation that uses a batch up is
+recorded. Each sample stands for a batch worth of bytes, so busy sites
+are estimated well and rare ones may not show up at all. An allocation
+that overdraws by more than a batch (a large string or array) is charged
+a sample for each batch it spans, and counted as the one object it is.
+
+The kind is the LoxClass of an instance, or one of the labels below. The
+site is the line of the token that allocated (the '+' of a string, the
+name of a variable or function), or else the '(' of the innermost call
+running, so an instance or an environment is blamed on the call that
+created it.
+*/
+class AllocationProfiler {
+    static final String ENVIRONMENT = "environment", CLOSURE = "closure",
+                        STRING = "string", ARRAY = "array", MAP = "map";
+    static final int interval = Integer.getInteger("lox.allocSample", 4096);
+    private static final int SITES_SHOWN = 20;
+
+    private static final class Count {
+        final String kind;
+        final int line;
+        long samples = 0;
+        double objects = 0;
+        Count(String kind, int line){
+            this.kind = kind;
+            this.line = line;
+        }
+        long bytes(){
+            return samples * interval;
+        }
+    }
+
+    private final Map<String, Count> sites = new HashMap<>();
+
+    //an allocation of size bytes that used up a batch and overdrew it by
+    //overdrawn bytes, site is null at the top level
+    synchronized void sample(Object kind, Token site, int size, long overdrawn){
+        String name = kind instanceof LoxClass ? ((LoxClass)kind).name + " instance" : (String)kind;
+        int line = site != null ? site.line : 0;
+        Count count = sites.computeIfAbsent(name + ":" + line, key -> new Count(name, line));
+        count.samples += 1 + overdrawn / interval;
+        //a batch holds interval / size objects smaller than it
+        count.objects += size >= interval ? 1 : (double)interval / Math.max(size, 1);
+    }
+
+    synchronized void report(PrintStream out){
+        Map<String, Count> kinds = new HashMap<>();
+        for (Count site : sites.values()){
+            Count total = kinds.computeIfAbsent(site.kind, kind -> new Count(kind, 0));
+            total.samples += site.samples;
+            total.objects += site.objects;
+        }
+        out.println("Allocations, sampled every ~" + interval + " bytes:");
+        out.println(String.format("%12s %12s  %s", "bytes", "objects", "kind"));
+        for (Count kind : sorted(kinds)){
+            out.println(String.format("%12d %12d  %s", kind.bytes(), Math.round(kind.objects), kind.kind));
+        }
+        out.println(String.format("%12s %12s  %-8s %s", "bytes", "objects", "line", "kind"));
+        List<Count> counts = sorted(sites);
+        for (Count site : counts.subList(0, Math.min(SITES_SHOWN, counts.size()))){
+            out.println(String.format("%12d %12d  %-8s %s", site.bytes(), Math.round(site.objects),
+                            site.line > 0 ? site.line : "-", site.kind));
+        }
+        if (counts.size() > SITES_SHOWN){
+            out.println("  (" + (counts.size() - SITES_SHOWN) + " more sites)");
+        }
+    }
+    private static List<Count> sorted(Map<String, Count> counts){
+        List<Count> sorted = new ArrayList<>(counts.values());
+        sorted.sort((a, b) -> a.samples != b.samples ? Long.compare(b.samples, a.samples) :
+                              a.line != b.line ? Integer.compare(a.line, b.line) :
+                              a.kind.compareTo(b.kind));
+        return sorted;
+    }
+}
@@ -0,0 +1,132 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/*
+Ahead-of-time mode: jlox --aot app.jar script.lox
+
+Writes a jar holding the runtime part of the lox package plus the script
+already scanned, parsed and resolved (AstWriter), with AotLauncher as its
+main class. Then runs that jar once under -XX:ArchiveClassesAtExit so the
+JVM dumps an AppCDS archive (app.jsa) of every runtime class. Launching
+    java -XX:SharedArchiveFile=app.jsa -jar app.jar
+skips the front end and maps the classes straight from the archive.
+*/
+class AotCompiler {
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+    //classes only needed to turn source into resolved trees
+    private static final List<String> frontEnd = Arrays.asList(
+        "Scanner", "Parser", "Resolver", "PurityAnalyzer", "AstWriter", "AotCompiler");
+
+    static void compile(List<Stmt> statements, Interpreter interpreter, Path jar)
+            throws IOException{
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS,
+                            AotLauncher.class.getName());
+
+        try (JarOutputStream out = new JarOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(jar)), manifest)){
+            copyRuntime(out);
+
+            out.putNextEntry(new JarEntry(AotLauncher.SCRIPT));
+            DataOutputStream data = new DataOutputStream(out);
+            new AstWriter(data, interpreter).writeStatements(statements);
+            data.flush();
+            out.closeEntry();
+        }
+
+        Path archive = archivePath(jar);
+        if (train(jar, archive)){
+            System.out.println("Run with: java -XX:SharedArchiveFile=" + archive +
+                            " -jar " + jar);
+        }else{
+            System.err.println("Couldn't create the CDS archive, run with: java -jar " + jar);
+        }
+    }
+
+    private static Path archivePath(Path jar){
+        String name = jar.getFileName().toString();
+        if (name.endsWith(".jar")) name = name.substring(0, name.length() - 4);
+        return jar.resolveSibling(name + ".jsa");
+    }
+
+    //runs the jar without executing the script to record its classes
+    private static boolean train(Path jar, Path archive) throws IOException{
+        Path java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(),
+                            "-XX:ArchiveClassesAtExit=" + archive,
+                            "-jar", jar.toString(), AotLauncher.TRAIN)
+            .inheritIO()
+            .start();
+        try{
+            return process.waitFor() == 0 && Files.exists(archive);
+        }catch (InterruptedException error){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    //copies the lox classes this interpreter was loaded from, minus the front end
+    private static void copyRuntime(JarOutputStream out) throws IOException{
+        Path source;
+        try{
+            source = Paths.get(Lox.class.getProtectionDomain()
+                                .getCodeSource().getLocation().toURI());
+        }catch (URISyntaxException error){
+            throw new IOException(error);
+        }
+        if (Files.isDirectory(source)){
+            try (Stream<Path> files = Files.list(source.resolve(PACKAGE))){
+                for (Path file : (Iterable<Path>)files::iterator){
+                    String name = PACKAGE + file.getFileName();
+                    if (isRuntimeClass(name)){
+                        copy(out, name, Files.readAllBytes(file));
+                    }
+                }
+            }
+            return;
+        }
+        try (JarFile jar = new JarFile(source.toFile())){
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()){
+                JarEntry entry = entries.nextElement();
+                if (isRuntimeClass(entry.getName())){
+                    copy(out, entry.getName(), jar.getInputStream(entry).readAllBytes());
+                }
+            }
+        }
+    }
+    private static boolean isRuntimeClass(String name){
+        if (!name.startsWith(PACKAGE) || !name.endsWith(".class")) return false;
+        String simpleName = name.substring(PACKAGE.length(), name.length() - 6);
+        if (simpleName.contains("/")) return false;
+        for (String excluded : frontEnd){
+            if (simpleName.equals(excluded) || simpleName.startsWith(excluded + "$")){
+                return false;
+            }
+        }
+        return true;
+    }
+    private static void copy(JarOutputStream out, String name, byte[] bytes) throws IOException{
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+//Main class of jars built with 'jlox --aot'. Runs the resolved script
+//stored in the jar, the Scanner, Parser and Resolver aren't even shipped.
+public class AotLauncher {
+    static final String SCRIPT = "script.loxast";
+    static final String TRAIN = "--train";
+
+    public static void main(String[] args) throws IOException{
+        List<Stmt> statements;
+        try (InputStream resource = AotLauncher.class.getResourceAsStream("/" + SCRIPT);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(resource))){
+            statements = new AstReader(in, Lox.interpreter).readStatements();
+        }
+        if (args.length == 1 && args[0].equals(TRAIN)){
+            //run by AotCompiler under -XX:ArchiveClassesAtExit, load everything
+            //the script could need so it all lands in the CDS archive
+            loadRuntime();
+            return;
+        }
+        Lox.interpreter.interpret(statements);
+        Lox.finish();
+    }
+
+    private static void loadRuntime() throws IOException{
+        Path jar;
+        try{
+            jar = Paths.get(AotLauncher.class.getProtectionDomain()
+                                .getCodeSource().getLocation().toURI());
+        }catch (URISyntaxException error){
+            throw new IOException(error);
+        }
+        try (JarFile file = new JarFile(jar.toFile())){
+            Enumeration<JarEntry> entries = file.entries();
+            while (entries.hasMoreElements()){
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class")) continue;
+                String className = name.substring(0, name.length() - 6).replace('/', '.');
+                try{
+                    Class.forName(className, false, AotLauncher.class.getClassLoader());
+                }catch (ClassNotFoundException error){
+                    throw new IOException(error);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+//Rebuilds the syntax trees written by AstWriter and hands the resolved
+//depths of their variables to the interpreter, like the Resolver would,
+//or for readFunction to the locals map given.
+class AstReader {
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    private final DataInputStream in;
+    private final Interpreter interpreter;
+    //where the depths of the nodes being read go
+    private Map<Expr, Integer> locals;
+    private final List<Stmt.Function> functions = new ArrayList<>();
+    //the locals each function declaration was read into
+    private final Map<Stmt.Function, Map<Expr, Integer>> functionLocals = new IdentityHashMap<>();
+    private final Map<Path, Module> modules = new HashMap<>();
+
+    AstReader(DataInputStream in, Interpreter interpreter){
+        this.in = in;
+        this.interpreter = interpreter;
+        this.locals = interpreter.locals();
+    }
+
+    List<Stmt> readStatements() throws IOException{
+        int count = in.readInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+    //a function written by AstWriter.writeFunction, its depths go into locals
+    //unless it was read before
+    Stmt.Function readFunction(Map<Expr, Integer> locals) throws IOException{
+        Map<Expr, Integer> previous = this.locals;
+        this.locals = locals;
+        try{
+            return (Stmt.Function)readStmt();
+        }finally{
+            this.locals = previous;
+        }
+    }
+    private Stmt.Function readFunction() throws IOException{
+        return (Stmt.Function)readStmt();
+    }
+    //the map the function's depths went into
+    Map<Expr, Integer> localsOf(Stmt.Function function){
+        return functionLocals.get(function);
+    }
+    Object readValue() throws IOException{
+        byte tag = in.readByte();
+        switch (tag){
+            case NIL: return null;
+            case FALSE: return false;
+            case TRUE: return true;
+            case NUMBER: return in.readDouble();
+            case STRING: return readString();
+        }
+        throw new IOException("Bad value tag " + tag);
+    }
+    String readString() throws IOException{
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return StringTable.intern(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private Token token() throws IOException{
+        TokenType type = tokenTypes[in.readByte()];
+        String lexeme = readString();
+        Object literal = readValue();
+        int line = in.readInt();
+        return new Token(type, lexeme, literal, line);
+    }
+    private <T extends Expr> T resolved(T expr) throws IOException{
+        int depth = in.readInt();
+        if (depth >= 0) locals.put(expr, depth);
+        return expr;
+    }
+
+    Expr readExpr() throws IOException{
+        byte tag = in.readByte();
+        switch (tag){
+            case NULL:
+                return null;
+            case ASSIGN:{
+                Token name = token();
+                Expr value = readExpr();
+                return resolved(new Expr.Assign(name, value));
+            }
+            case BINARY:{
+                Expr left = readExpr();
+                Token operator = token();
+                return new Expr.Binary(left, operator, readExpr());
+            }
+            case CALL:{
+                Expr callee = readExpr();
+                Token paren = token();
+                int count = in.readInt();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++){
+                    arguments.add(readExpr());
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GET:{
+                Expr object = readExpr();
+                return new Expr.Get(object, token());
+            }
+            case GROUPING:
+                return new Expr.Grouping(readExpr());
+            case LITERAL:
+                return new Expr.Literal(readValue());
+            case LOGICAL:{
+                Expr left = readExpr();
+                Token operator = token();
+                return new Expr.Logical(left, operator, readExpr());
+            }
+            case SET:{
+                Expr object = readExpr();
+                Token name = token();
+                return new Expr.Set(object, name, readExpr());
+            }
+            case UNARY:{
+                Token operator = token();
+                return new Expr.Unary(operator, readExpr());
+            }
+            case VARIABLE:
+                return resolved(new Expr.Variable(token()));
+            case SUPER:{
+                Token keyword = token();
+                return resolved(new Expr.Super(keyword, token()));
+            }
+            case THIS:
+                return resolved(new Expr.This(token()));
+        }
+        throw new IOException("Bad expression tag " + tag);
+    }
+
+    Stmt readStmt() throws IOException{
+        byte tag = in.readByte();
+        switch (tag){
+            case NULL:
+                return null;
+            case BLOCK:
+                return new Stmt.Block(readStatements());
+            case CLASS:{
+                Token name = token();
+                Expr.Variable superclass = (Expr.Variable)readExpr();
+                int count = in.readInt();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++){
+                    methods.add(readFunction());
+                }
+                return new Stmt.Class(name, superclass, methods);
+            }
+            case EXPRESSION:
+                return new Stmt.Expression(readExpr());
+            case FUNCTION:{
+                //claim the index before the body, which may refer to it
+                int index = functions.size();
+                functions.add(null);
+                Token name = token();
+                int count = in.readInt();
+                List<Token> params = new ArrayList<>(count);
+                for (int i = 0; i < count; i++){
+                    params.add(token());
+                }
+                Stmt.Function function = new Stmt.Function(name, params, readStatements());
+                functions.set(index, function);
+                functionLocals.put(function, locals);
+                return function;
+            }
+            case FUNCTION_REF:
+                return functions.get(in.readInt());
+            case IF:{
+                Expr condition = readExpr();
+                Stmt thenBranch = readStmt();
+                return new Stmt.If(condition, thenBranch, readStmt());
+            }
+            case IMPORT:{
+                Stmt.Import stmt = new Stmt.Import(token(), token());
+                Object file = readValue();
+                if (file == null) return stmt;
+                Path path = Paths.get((String)file);
+                if ((boolean)readValue()){
+                    Module module = Module.pending(path);
+                    modules.put(path, module);
+                    module.complete(readStatements(), interpreter.locals());
+                }
+                stmt.module = modules.get(path);
+                return stmt;
+            }
+            case PRINT:{
+                Token keyword = token();
+                return new Stmt.Print(keyword, readExpr());
+            }
+            case RETURN:{
+                Token keyword = token();
+                return new Stmt.Return(keyword, readExpr());
+            }
+            case VAR:{
+                Token name = token();
+                return new Stmt.Var(name, readExpr());
+            }
+            case WHILE:{
+                Expr condition = readExpr();
+                return new Stmt.While(condition, readStmt());
+            }
+        }
+        throw new IOException("Bad statement tag " + tag);
+    }
+}
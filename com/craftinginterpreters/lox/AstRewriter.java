@@ -0,0 +1,196 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+//Walks every child slot of a syntax tree, children first, and lets a
+//subclass decide what each slot holds from now on. Used by tools that
+//swap probe nodes into the tree (Instrumenter, Coverage).
+abstract class AstRewriter implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+    //where a node sits in its parent, so a probe can put it back
+    interface Slot<T> {
+        void set(T node);
+    }
+    //a probe around another node, the walk goes through to that node
+    interface Wrapper {
+        Object wrapped();
+    }
+
+    //first line found in the statement being walked, and the last line seen
+    private int firstLine = -1;
+    private int lastLine = 1;
+
+    //line is that of the statement's first token, or of the token before
+    //it for statements without one (eg. '1;')
+    abstract Stmt rewrite(Stmt stmt, int line, Slot<Stmt> slot);
+    abstract Expr rewrite(Expr expr, Slot<Expr> slot);
+
+    void statements(List<Stmt> statements){
+        for (int i = 0; i < statements.size(); i++){
+            int index = i;
+            statements.set(i, slot(statements.get(i), stmt -> statements.set(index, stmt)));
+        }
+    }
+    private void expressions(List<Expr> expressions){
+        for (int i = 0; i < expressions.size(); i++){
+            int index = i;
+            expressions.set(i, slot(expressions.get(i), expr -> expressions.set(index, expr)));
+        }
+    }
+    private Stmt slot(Stmt stmt, Slot<Stmt> slot){
+        if (stmt == null) return null;
+        while (stmt instanceof Wrapper) stmt = (Stmt)((Wrapper)stmt).wrapped();
+        //a probe can stand in for a missing else branch
+        if (stmt == null) return null;
+
+        int outer = firstLine;
+        firstLine = -1;
+        stmt.accept(this);
+        int line = firstLine != -1 ? firstLine : lastLine;
+        firstLine = outer != -1 ? outer : line;
+        return rewrite(stmt, line, slot);
+    }
+    private Expr slot(Expr expr, Slot<Expr> slot){
+        if (expr == null) return null;
+        while (expr instanceof Wrapper) expr = (Expr)((Wrapper)expr).wrapped();
+
+        expr.accept(this);
+        return rewrite(expr, slot);
+    }
+    private void line(Token token){
+        lastLine = token.line;
+        if (firstLine == -1) firstLine = token.line;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        line(expr.name);
+        expr.value = slot(expr.value, value -> expr.value = value);
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        expr.left = slot(expr.left, left -> expr.left = left);
+        line(expr.operator);
+        expr.right = slot(expr.right, right -> expr.right = right);
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        expr.callee = slot(expr.callee, callee -> expr.callee = callee);
+        expressions(expr.arguments);
+        line(expr.paren);
+        return null;
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        expr.object = slot(expr.object, object -> expr.object = object);
+        line(expr.name);
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        expr.expression = slot(expr.expression, expression -> expr.expression = expression);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        expr.left = slot(expr.left, left -> expr.left = left);
+        line(expr.operator);
+        expr.right = slot(expr.right, right -> expr.right = right);
+        return null;
+    }
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        expr.object = slot(expr.object, object -> expr.object = object);
+        line(expr.name);
+        expr.value = slot(expr.value, value -> expr.value = value);
+        return null;
+    }
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        line(expr.keyword);
+        return null;
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        line(expr.keyword);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        line(expr.operator);
+        expr.right = slot(expr.right, right -> expr.right = right);
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        line(expr.name);
+        return null;
+    }
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        statements(stmt.statements);
+        return null;
+    }
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        line(stmt.name);
+        if (stmt.superclass != null) line(stmt.superclass.name);
+        //methods stay Stmt.Functions, only their bodies are walked
+        for (Stmt.Function method : stmt.methods){
+            method.accept(this);
+        }
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        stmt.expression = slot(stmt.expression, expression -> stmt.expression = expression);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        line(stmt.name);
+        statements(stmt.body);
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        stmt.condition = slot(stmt.condition, condition -> stmt.condition = condition);
+        stmt.thenBranch = slot(stmt.thenBranch, branch -> stmt.thenBranch = branch);
+        stmt.elseBranch = slot(stmt.elseBranch, branch -> stmt.elseBranch = branch);
+        return null;
+    }
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt){
+        line(stmt.keyword);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        line(stmt.keyword);
+        stmt.expression = slot(stmt.expression, expression -> stmt.expression = expression);
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        line(stmt.keyword);
+        stmt.value = slot(stmt.value, value -> stmt.value = value);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        line(stmt.name);
+        stmt.initializer = slot(stmt.initializer, initializer -> stmt.initializer = initializer);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        stmt.condition = slot(stmt.condition, condition -> stmt.condition = condition);
+        stmt.body = slot(stmt.body, body -> stmt.body = body);
+        return null;
+    }
+}
@@ -0,0 +1,338 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//Writes resolved syntax trees in a compact binary form that AstReader turns
+//back into Expr/Stmt nodes without running the Scanner, Parser or Resolver.
+//Each variable carries its resolved depth, and a function declaration that
+//is reached twice is written once and referenced by index after that. So
+//is a linked module, with its first import.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+    //node tags, shared with AstReader
+    static final byte NULL = 0;
+    static final byte ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, GROUPING = 5,
+                      LITERAL = 6, LOGICAL = 7, SET = 8, UNARY = 9, VARIABLE = 10,
+                      SUPER = 11, THIS = 12;
+    static final byte BLOCK = 20, CLASS = 21, EXPRESSION = 22, FUNCTION = 23,
+                      IF = 24, PRINT = 25, RETURN = 26, VAR = 27, WHILE = 28,
+                      IMPORT = 29;
+    //a function declaration already written, followed by its index
+    static final byte FUNCTION_REF = 40;
+    //value tags
+    static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    private final DataOutputStream out;
+    private final Interpreter interpreter;
+    //where the depths of the nodes being written are, see writeFunction
+    private Map<Expr, Integer> locals;
+    private final Map<Stmt.Function, Integer> functions = new IdentityHashMap<>();
+    private final Set<Module> modules = new HashSet<>();
+
+    AstWriter(DataOutputStream out, Interpreter interpreter){
+        this.out = out;
+        this.interpreter = interpreter;
+        this.locals = interpreter.locals();
+    }
+
+    void writeStatements(List<Stmt> statements) throws IOException{
+        out.writeInt(statements.size());
+        for (Stmt statement : statements){
+            writeStmt(statement);
+        }
+    }
+    void writeStmt(Stmt stmt) throws IOException{
+        if (stmt == null){
+            out.writeByte(NULL);
+            return;
+        }
+        try{
+            stmt.accept(this);
+        }catch (UncheckedIOException error){
+            throw error.getCause();
+        }
+    }
+    //a function resolved into locals of its own, eg. one from a module
+    void writeFunction(Stmt.Function function, Map<Expr, Integer> locals) throws IOException{
+        Map<Expr, Integer> previous = this.locals;
+        this.locals = locals;
+        try{
+            writeStmt(function);
+        }finally{
+            this.locals = previous;
+        }
+    }
+    void writeValue(Object value) throws IOException{
+        if (value == null){
+            out.writeByte(NIL);
+        }else if (value instanceof Boolean){
+            out.writeByte((boolean)value ? TRUE : FALSE);
+        }else if (value instanceof Double){
+            out.writeByte(NUMBER);
+            out.writeDouble((double)value);
+        }else if (value instanceof String){
+            out.writeByte(STRING);
+            writeString((String)value);
+        }else{
+            throw new IllegalArgumentException("Can't write literal " + value);
+        }
+    }
+    //unlike writeUTF this has no 64K limit
+    void writeString(String value) throws IOException{
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    //the visitors can't throw IOException so these wrap it
+    private void tag(byte tag){
+        try{
+            out.writeByte(tag);
+        }catch (IOException error){
+            throw new UncheckedIOException(error);
+        }
+    }
+    private void token(Token token){
+        try{
+            out.writeByte(token.type.ordinal());
+            writeString(token.lexeme);
+            writeValue(token.literal);
+            out.writeInt(token.line);
+        }catch (IOException error){
+            throw new UncheckedIOException(error);
+        }
+    }
+    private void depth(Expr expr){
+        Integer depth = locals.get(expr);
+        try{
+            out.writeInt(depth == null ? -1 : depth);
+        }catch (IOException error){
+            throw new UncheckedIOException(error);
+        }
+    }
+    private void count(int count){
+        try{
+            out.writeInt(count);
+        }catch (IOException error){
+            throw new UncheckedIOException(error);
+        }
+    }
+    private void value(Object value){
+        try{
+            writeValue(value);
+        }catch (IOException error){
+            throw new UncheckedIOException(error);
+        }
+    }
+    private void expr(Expr expr){
+        if (expr == null){
+            tag(NULL);
+            return;
+        }
+        expr.accept(this);
+    }
+    private void stmt(Stmt stmt){
+        if (stmt == null){
+            tag(NULL);
+            return;
+        }
+        stmt.accept(this);
+    }
+    private void statements(List<Stmt> statements){
+        count(statements.size());
+        for (Stmt statement : statements){
+            stmt(statement);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        tag(ASSIGN);
+        token(expr.name);
+        expr(expr.value);
+        depth(expr);
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        tag(BINARY);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        tag(CALL);
+        expr(expr.callee);
+        token(expr.paren);
+        count(expr.arguments.size());
+        for (Expr argument : expr.arguments){
+            expr(argument);
+        }
+        return null;
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        tag(GET);
+        expr(expr.object);
+        token(expr.name);
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        tag(GROUPING);
+        expr(expr.expression);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        tag(LITERAL);
+        value(expr.value);
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        tag(LOGICAL);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        tag(SET);
+        expr(expr.object);
+        token(expr.name);
+        expr(expr.value);
+        return null;
+    }
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        tag(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        depth(expr);
+        return null;
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        tag(THIS);
+        token(expr.keyword);
+        depth(expr);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        tag(UNARY);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        tag(VARIABLE);
+        token(expr.name);
+        depth(expr);
+        return null;
+    }
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        tag(BLOCK);
+        statements(stmt.statements);
+        return null;
+    }
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        tag(CLASS);
+        token(stmt.name);
+        expr(stmt.superclass);
+        count(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods){
+            stmt(method);
+        }
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        tag(EXPRESSION);
+        expr(stmt.expression);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        Integer index = functions.get(stmt);
+        if (index != null){
+            tag(FUNCTION_REF);
+            count(index);
+            return null;
+        }
+        functions.put(stmt, functions.size());
+        tag(FUNCTION);
+        token(stmt.name);
+        count(stmt.params.size());
+        for (Token param : stmt.params){
+            token(param);
+        }
+        statements(stmt.body);
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        tag(IF);
+        expr(stmt.condition);
+        stmt(stmt.thenBranch);
+        stmt(stmt.elseBranch);
+        return null;
+    }
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt){
+        tag(IMPORT);
+        token(stmt.keyword);
+        token(stmt.path);
+        if (stmt.module == null){
+            value(null);
+            return null;
+        }
+        value(stmt.module.path.toString());
+        boolean first = modules.add(stmt.module);
+        value(first);
+        if (first) statements(stmt.module.resolveInto(interpreter));
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        tag(PRINT);
+        token(stmt.keyword);
+        expr(stmt.expression);
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        tag(RETURN);
+        token(stmt.keyword);
+        expr(stmt.value);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        tag(VAR);
+        token(stmt.name);
+        expr(stmt.initializer);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        tag(WHILE);
+        expr(stmt.condition);
+        stmt(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,216 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/*
+Times a script, or one of its functions, over many runs:
+    jlox --bench [--warmup 5] [--iterations 20] script.lox
+    jlox --bench --function main --json main.json script.lox
+The script is scanned, parsed and resolved once. Each iteration runs the
+resolved statements in a fresh Interpreter (fresh globals, and its
+imports run again), or with --function calls that global function
+without arguments after the script has run once to define it. Warmup
+iterations give the JIT time to compile the interpreter and aren't
+measured. What the script prints is thrown away, errors are still
+reported and stop the benchmark.
+
+Reported are the mean, min, p50, p99, p99.9 and max of the measured
+iterations (see LatencyHistogram), the bytes allocated per iteration on
+the benchmark thread (not by spawned tasks or parallelMap workers) and
+the garbage collections during the measured iterations. --json writes
+the same numbers to a file, for tracking a script across versions.
+*/
+class Benchmark {
+    private final String script;
+    private final String function;
+    private final int warmup;
+    private final int iterations;
+    //the script's output
+    private final OutputBuffer discard = new OutputBuffer(
+        Channels.newChannel(OutputStream.nullOutputStream()), 64 * 1024);
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    //-1 when the JVM can't tell
+    private long allocated = 0;
+    private long collections = 0;
+    private long collectionMillis = 0;
+
+    //function is null to time the whole script
+    Benchmark(String script, String function, int warmup, int iterations){
+        this.script = script;
+        this.function = function;
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    //one iteration, what prepare() does isn't timed
+    private interface Iteration {
+        Runnable prepare();
+    }
+
+    //runs the benchmark and prints its report, returns the exit status
+    int run(String json) throws IOException{
+        Session session = Lox.session();
+        byte[] bytes = Files.readAllBytes(Paths.get(script));
+        Interpreter resolved = new Interpreter(discard);
+        List<Stmt> statements = Lox.parse(resolved, new String(bytes, Charset.defaultCharset()));
+        if (!session.hadError) Module.link(statements, Lox.directory(script));
+        if (session.hadError) return 65;
+
+        Iteration iteration = function == null ?
+            wholeScript(statements, resolved.locals()) :
+            oneFunction(statements, resolved.locals());
+        if (iteration == null) return session.status() != 0 ? session.status() : 65;
+
+        for (int i = 0; i < warmup; i++){
+            iteration.prepare().run();
+            //each iteration is a run of its own, and so are the files it leaves open
+            session.closeFiles();
+            if (session.status() != 0) return session.status();
+        }
+        measure(iteration, session);
+        if (session.status() != 0) return session.status();
+
+        report(System.out);
+        System.out.flush();
+        if (json != null){
+            Files.writeString(Paths.get(json), json(), Charset.defaultCharset());
+        }
+        return 0;
+    }
+
+    private Iteration wholeScript(List<Stmt> statements, Map<Expr, Integer> locals){
+        return () -> {
+            Interpreter interpreter = new Interpreter(discard, locals);
+            return () -> interpreter.interpret(statements);
+        };
+    }
+    private Iteration oneFunction(List<Stmt> statements, Map<Expr, Integer> locals){
+        Interpreter interpreter = new Interpreter(discard, locals);
+        interpreter.interpret(statements);
+        if (Lox.session().status() != 0) return null;
+        Object value = interpreter.globals.bindings().get(function);
+        if (!(value instanceof LoxCallable) || ((LoxCallable)value).arity() != 0){
+            Lox.session().err.println("No function '" + function + "' without parameters in " + script + ".");
+            return null;
+        }
+        LoxCallable callable = (LoxCallable)value;
+        Runnable call = () -> {
+            try{
+                callable.call(interpreter, List.of());
+            }catch (RuntimeError error){
+                Lox.runtimeError(error);
+            }
+        };
+        return () -> call;
+    }
+
+    private void measure(Iteration iteration, Session session){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations =
+            threads instanceof com.sun.management.ThreadMXBean &&
+            ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemoryEnabled() ?
+            (com.sun.management.ThreadMXBean)threads : null;
+        long collectionsBefore = collections(), millisBefore = collectionMillis();
+        for (int i = 0; i < iterations; i++){
+            Runnable timed = iteration.prepare();
+            long bytesBefore = allocations != null ? allocations.getCurrentThreadAllocatedBytes() : 0;
+            long start = System.nanoTime();
+            timed.run();
+            long elapsed = System.nanoTime() - start;
+            if (allocations != null){
+                allocated += allocations.getCurrentThreadAllocatedBytes() - bytesBefore;
+            }
+            histogram.record(elapsed);
+            session.closeFiles();
+            if (session.status() != 0) return;
+        }
+        if (allocations == null) allocated = -1;
+        collections = collections() - collectionsBefore;
+        collectionMillis = collectionMillis() - millisBefore;
+    }
+    private static long collections(){
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+    private static long collectionMillis(){
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    private void report(PrintStream out){
+        out.println((function != null ? function + "() in " : "") + script + ", " +
+                    iterations + " iterations after " + warmup + " warmup:");
+        out.println("  mean       " + duration(histogram.mean()));
+        out.println("  min        " + duration(histogram.min()));
+        out.println("  p50        " + duration(histogram.percentile(50)));
+        out.println("  p99        " + duration(histogram.percentile(99)));
+        out.println("  p99.9      " + duration(histogram.percentile(99.9)));
+        out.println("  max        " + duration(histogram.max()));
+        out.println("  allocated  " + (allocated < 0 ? "unknown" :
+                                      size((double)allocated / iterations) + " per iteration"));
+        out.println("  gc         " + collections + " collections, " + collectionMillis + " ms");
+    }
+    private static String duration(double nanos){
+        if (nanos < 1e6) return String.format("%.1f us", nanos / 1e3);
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+    private static String size(double bytes){
+        if (bytes < 1 << 10) return String.format("%.0f B", bytes);
+        if (bytes < 1 << 20) return String.format("%.1f KB", bytes / (1 << 10));
+        return String.format("%.1f MB", bytes / (1 << 20));
+    }
+
+    //durations in nanoseconds
+    private String json(){
+        StringBuilder json = new StringBuilder("{\n");
+        field(json, "script", quote(script));
+        field(json, "function", function != null ? quote(function) : "null");
+        field(json, "warmup", warmup);
+        field(json, "iterations", iterations);
+        field(json, "mean", Math.round(histogram.mean()));
+        field(json, "min", histogram.min());
+        field(json, "p50", histogram.percentile(50));
+        field(json, "p99", histogram.percentile(99));
+        field(json, "p99_9", histogram.percentile(99.9));
+        field(json, "max", histogram.max());
+        field(json, "allocatedPerIteration", allocated < 0 ? "null" : Long.toString(allocated / iterations));
+        field(json, "gcCount", collections);
+        json.append("  \"gcMillis\": ").append(collectionMillis).append("\n}\n");
+        return json.toString();
+    }
+    private static void field(StringBuilder json, String name, Object value){
+        json.append("  \"").append(name).append("\": ").append(value).append(",\n");
+    }
+    private static String quote(String text){
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\'){
+                quoted.append('\\').append(c);
+            }else if (c < 0x20){
+                quoted.append(String.format("\\u%04x", (int)c));
+            }else{
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
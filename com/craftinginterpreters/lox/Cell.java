@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+//One global variable. Expr.Variable and Expr.Assign nodes keep the cell
+//they found the first time, so later accesses skip the lookup by name.
+//A cell exists as soon as something refers to the name, it only holds a
+//value once the global is defined.
+final class Cell {
+    static final Object UNDEFINED = new Object();
+
+    //the globals the cell belongs to, nodes are shared by every
+    //interpreter that runs the same tree (eg. in the Daemon)
+    final Environment owner;
+    final String name;
+    volatile Object value = UNDEFINED;
+    //defined once and never assigned since, compiled code may treat the
+    //value as a constant as long as this holds
+    volatile boolean constant = true;
+
+    Cell(Environment owner, String name){
+        this.owner = owner;
+        this.name = name;
+    }
+
+    void define(Object value){
+        if (this.value != UNDEFINED) constant = false;
+        this.value = value;
+    }
+    Object get(Token name){
+        Object value = this.value;
+        if (value == UNDEFINED) throw undefined(name);
+        return value;
+    }
+    void assign(Token name, Object value){
+        if (this.value == UNDEFINED) throw undefined(name);
+        constant = false;
+        this.value = value;
+    }
+    private static RuntimeError undefined(Token name){
+        return new RuntimeError(name,
+            "Dude, Undefined variable '" + name.lexeme + "'.");
+    }
+}
@@ -0,0 +1,547 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+//Body of a hot LoxFunction after FunctionCompiler has translated it.
+//Instead of Environments the body works on a Frame whose slots were
+//assigned at compile time, and every node is specialized for its
+//operator so HotSpot sees small monomorphic methods it can inline.
+final class CompiledFunction {
+    //returned by statements that complete normally
+    static final Object NEXT = new Object();
+
+    private final int arity;
+    private final int slotCount;
+    private final boolean usesNumbers;
+    private final Statement body;
+
+    CompiledFunction(int arity, int slotCount, boolean usesNumbers, Statement body){
+        this.arity = arity;
+        this.slotCount = slotCount;
+        this.usesNumbers = usesNumbers;
+        this.body = body;
+    }
+
+    Object invoke(Interpreter interpreter, Object[] arguments){
+        Frame frame = new Frame(interpreter, slotCount, usesNumbers);
+        System.arraycopy(arguments, 0, frame.slots, 0, arity);
+        return run(frame);
+    }
+    Object invoke(Interpreter interpreter, List<Object> arguments){
+        Frame frame = new Frame(interpreter, slotCount, usesNumbers);
+        for (int i = 0; i < arity; i++){
+            frame.slots[i] = arguments.get(i);
+        }
+        return run(frame);
+    }
+    private Object run(Frame frame){
+        frame.interpreter.step();
+        frame.interpreter.allocate(Quota.ENVIRONMENT_SIZE + slotCount * Quota.SLOT_SIZE,
+                                   AllocationProfiler.ENVIRONMENT, null);
+        Object result = body.exec(frame);
+        return result == NEXT ? null : result;
+    }
+
+    //locals of one call, numbers holds the slots that only ever contain numbers
+    static final class Frame {
+        final Interpreter interpreter;
+        final Object[] slots;
+        final double[] numbers;
+
+        Frame(Interpreter interpreter, int slotCount, boolean usesNumbers){
+            this.interpreter = interpreter;
+            this.slots = new Object[slotCount];
+            this.numbers = usesNumbers ? new double[slotCount] : null;
+        }
+    }
+
+    abstract static class Node {
+        abstract Object eval(Frame frame);
+    }
+    //expressions that always produce a number (or throw)
+    abstract static class NumberNode extends Node {
+        abstract double number(Frame frame);
+        @Override
+        final Object eval(Frame frame){
+            return number(frame);
+        }
+    }
+    //expressions that always produce a boolean
+    abstract static class Condition extends Node {
+        abstract boolean test(Frame frame);
+        @Override
+        final Object eval(Frame frame){
+            return test(frame);
+        }
+    }
+    abstract static class Statement {
+        //NEXT, or the value of an executed 'return'
+        abstract Object exec(Frame frame);
+    }
+
+    //---- expressions ----
+
+    static final class Constant extends Node {
+        private final Object value;
+        Constant(Object value){ this.value = value; }
+        @Override
+        Object eval(Frame frame){ return value; }
+    }
+    static final class NumberConstant extends NumberNode {
+        private final double value;
+        NumberConstant(double value){ this.value = value; }
+        @Override
+        double number(Frame frame){ return value; }
+    }
+    static final class LocalGet extends Node {
+        private final int slot;
+        LocalGet(int slot){ this.slot = slot; }
+        @Override
+        Object eval(Frame frame){ return frame.slots[slot]; }
+    }
+    static final class LocalNumberGet extends NumberNode {
+        private final int slot;
+        LocalNumberGet(int slot){ this.slot = slot; }
+        @Override
+        double number(Frame frame){ return frame.numbers[slot]; }
+    }
+    static final class LocalSet extends Node {
+        private final int slot;
+        private final Node value;
+        LocalSet(int slot, Node value){
+            this.slot = slot;
+            this.value = value;
+        }
+        @Override
+        Object eval(Frame frame){
+            return frame.slots[slot] = value.eval(frame);
+        }
+    }
+    static final class LocalNumberSet extends NumberNode {
+        private final int slot;
+        private final NumberNode value;
+        LocalNumberSet(int slot, NumberNode value){
+            this.slot = slot;
+            this.value = value;
+        }
+        @Override
+        double number(Frame frame){
+            return frame.numbers[slot] = value.number(frame);
+        }
+    }
+    //globals are bound to their Cell at compile time
+    static final class GlobalGet extends Node {
+        private final Token name;
+        private final Cell cell;
+        GlobalGet(Token name, Cell cell){
+            this.name = name;
+            this.cell = cell;
+        }
+        @Override
+        Object eval(Frame frame){
+            return cell.get(name);
+        }
+    }
+    static final class GlobalSet extends Node {
+        private final Token name;
+        private final Cell cell;
+        private final Node value;
+        GlobalSet(Token name, Cell cell, Node value){
+            this.name = name;
+            this.cell = cell;
+            this.value = value;
+        }
+        @Override
+        Object eval(Frame frame){
+            Object result = value.eval(frame);
+            frame.interpreter.assignGlobal(cell, name, result);
+            return result;
+        }
+    }
+    static final class Not extends Condition {
+        private final Node right;
+        Not(Node right){ this.right = right; }
+        @Override
+        boolean test(Frame frame){
+            return !Interpreter.isTruthy(right.eval(frame));
+        }
+    }
+    static final class Negate extends NumberNode {
+        private final Token operator;
+        private final Node right;
+        Negate(Token operator, Node right){
+            this.operator = operator;
+            this.right = right;
+        }
+        @Override
+        double number(Frame frame){
+            Object value = right.eval(frame);
+            Interpreter.checkNumberOperand(operator, value);
+            return -(double)value;
+        }
+    }
+    static final class NegateNumber extends NumberNode {
+        private final NumberNode right;
+        NegateNumber(NumberNode right){ this.right = right; }
+        @Override
+        double number(Frame frame){ return -right.number(frame); }
+    }
+    static final class Add extends NumberNode {
+        private final NumberNode left, right;
+        Add(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        double number(Frame frame){ return left.number(frame) + right.number(frame); }
+    }
+    static final class Subtract extends NumberNode {
+        private final NumberNode left, right;
+        Subtract(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        double number(Frame frame){ return left.number(frame) - right.number(frame); }
+    }
+    static final class Multiply extends NumberNode {
+        private final NumberNode left, right;
+        Multiply(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        double number(Frame frame){ return left.number(frame) * right.number(frame); }
+    }
+    static final class Divide extends NumberNode {
+        private final NumberNode left, right;
+        Divide(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        double number(Frame frame){ return left.number(frame) / right.number(frame); }
+    }
+    //- * / on operands of unknown type, the result is still always a number
+    static final class CheckedArithmetic extends NumberNode {
+        private final Token operator;
+        private final Node left, right;
+        CheckedArithmetic(Token operator, Node left, Node right){
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        double number(Frame frame){
+            Object a = left.eval(frame);
+            Object b = right.eval(frame);
+            Interpreter.checkNumberOperands(operator, a, b);
+            switch (operator.type){
+                case MINUS: return (double)a - (double)b;
+                case STAR:  return (double)a * (double)b;
+                default:    return (double)a / (double)b;
+            }
+        }
+    }
+    //'+' when either side may be a string
+    static final class Plus extends Node {
+        private final Token operator;
+        private final Node left, right;
+        Plus(Token operator, Node left, Node right){
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        Object eval(Frame frame){
+            Object sum = Interpreter.add(operator, left.eval(frame), right.eval(frame));
+            if (sum instanceof String){
+                frame.interpreter.allocate(Quota.stringSize((String)sum), AllocationProfiler.STRING, operator);
+            }
+            return sum;
+        }
+    }
+    static final class Less extends Condition {
+        private final NumberNode left, right;
+        Less(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        boolean test(Frame frame){ return left.number(frame) < right.number(frame); }
+    }
+    static final class LessEqual extends Condition {
+        private final NumberNode left, right;
+        LessEqual(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        boolean test(Frame frame){ return left.number(frame) <= right.number(frame); }
+    }
+    static final class Greater extends Condition {
+        private final NumberNode left, right;
+        Greater(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        boolean test(Frame frame){ return left.number(frame) > right.number(frame); }
+    }
+    static final class GreaterEqual extends Condition {
+        private final NumberNode left, right;
+        GreaterEqual(NumberNode left, NumberNode right){
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        boolean test(Frame frame){ return left.number(frame) >= right.number(frame); }
+    }
+    //comparison and equality on operands of unknown type
+    static final class CheckedComparison extends Condition {
+        private final Token operator;
+        private final Node left, right;
+        CheckedComparison(Token operator, Node left, Node right){
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        boolean test(Frame frame){
+            Object a = left.eval(frame);
+            Object b = right.eval(frame);
+            //equality takes operands of any type
+            switch (operator.type){
+                case BANG_EQUAL:    return !Interpreter.isEqual(a, b);
+                case EQUAL_EQUAL:   return Interpreter.isEqual(a, b);
+            }
+            Interpreter.checkNumberOperands(operator, a, b);
+            switch (operator.type){
+                case GREATER:       return (double)a > (double)b;
+                case GREATER_EQUAL: return (double)a >= (double)b;
+                case LESS:          return (double)a < (double)b;
+                default:            return (double)a <= (double)b;
+            }
+        }
+    }
+    static final class Truthy extends Condition {
+        private final Node value;
+        Truthy(Node value){ this.value = value; }
+        @Override
+        boolean test(Frame frame){ return Interpreter.isTruthy(value.eval(frame)); }
+    }
+    static final class Logical extends Node {
+        private final boolean isOr;
+        private final Node left, right;
+        Logical(boolean isOr, Node left, Node right){
+            this.isOr = isOr;
+            this.left = left;
+            this.right = right;
+        }
+        @Override
+        Object eval(Frame frame){
+            Object value = left.eval(frame);
+            if (Interpreter.isTruthy(value) == isOr) return value;
+            return right.eval(frame);
+        }
+    }
+    static final class Call extends Node {
+        private final Token paren;
+        private final Node callee;
+        private final Node[] arguments;
+        Call(Token paren, Node callee, Node[] arguments){
+            this.paren = paren;
+            this.callee = callee;
+            this.arguments = arguments;
+        }
+        @Override
+        Object eval(Frame frame){
+            Object function = callee.eval(frame);
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++){
+                values[i] = arguments[i].eval(frame);
+            }
+            return call(paren, function, values, frame);
+        }
+        static Object call(Token paren, Object function, Object[] values, Frame frame){
+            if (!(function instanceof LoxCallable)){
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+            LoxCallable callable = (LoxCallable)function;
+            if (values.length != callable.arity()){
+                throw new RuntimeError(paren, "Expected " +
+                            callable.arity() + " arguments but got " +
+                            values.length + ".");
+            }
+            Interpreter interpreter = frame.interpreter;
+            Token caller = interpreter.site;
+            interpreter.site = paren;
+            try{
+                //calls between Lox functions skip building an argument list
+                if (callable instanceof LoxFunction){
+                    return ((LoxFunction)callable).call(interpreter, values);
+                }
+                return callable.call(interpreter, Arrays.asList(values));
+            }catch (RuntimeError error){
+                if (error.token == null && !(error instanceof QuotaExceeded)) throw new RuntimeError(paren, error.getMessage());
+                throw error;
+            }finally{
+                interpreter.site = caller;
+            }
+        }
+    }
+    //call of a global function that was defined once and never assigned,
+    //it is called directly until the Cell says otherwise
+    static final class ConstantCall extends Node {
+        private final Token name;
+        private final Token paren;
+        private final Cell cell;
+        private final LoxFunction function;
+        private final Node[] arguments;
+        ConstantCall(Token name, Token paren, Cell cell, LoxFunction function, Node[] arguments){
+            this.name = name;
+            this.paren = paren;
+            this.cell = cell;
+            this.function = function;
+            this.arguments = arguments;
+        }
+        @Override
+        Object eval(Frame frame){
+            //the callee is read before the arguments, as in Call
+            Object callee = cell.constant ? function : cell.get(name);
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++){
+                values[i] = arguments[i].eval(frame);
+            }
+            if (callee != function) return Call.call(paren, callee, values, frame);
+            Interpreter interpreter = frame.interpreter;
+            Token caller = interpreter.site;
+            interpreter.site = paren;
+            try{
+                return function.call(interpreter, values);
+            }finally{
+                interpreter.site = caller;
+            }
+        }
+    }
+    static final class Get extends Node {
+        private final Token name;
+        private final Node object;
+        Get(Token name, Node object){
+            this.name = name;
+            this.object = object;
+        }
+        @Override
+        Object eval(Frame frame){
+            return Interpreter.getProperty(object.eval(frame), name);
+        }
+    }
+    static final class Set extends Node {
+        private final Token name;
+        private final Node object, value;
+        Set(Token name, Node object, Node value){
+            this.name = name;
+            this.object = object;
+            this.value = value;
+        }
+        @Override
+        Object eval(Frame frame){
+            Object target = object.eval(frame);
+            if (!(target instanceof LoxInstance)){
+                throw new RuntimeError(name, "Only instances have fields");
+            }
+            Object result = value.eval(frame);
+            ((LoxInstance)target).set(name, result);
+            return result;
+        }
+    }
+
+    //---- statements ----
+
+    static final class Evaluate extends Statement {
+        private final Node expression;
+        Evaluate(Node expression){ this.expression = expression; }
+        @Override
+        Object exec(Frame frame){
+            expression.eval(frame);
+            return NEXT;
+        }
+    }
+    static final class EvaluateNumber extends Statement {
+        private final NumberNode expression;
+        EvaluateNumber(NumberNode expression){ this.expression = expression; }
+        @Override
+        Object exec(Frame frame){
+            //calls number() so the result is never boxed
+            expression.number(frame);
+            return NEXT;
+        }
+    }
+    static final class Print extends Statement {
+        private final Node expression;
+        Print(Node expression){ this.expression = expression; }
+        @Override
+        Object exec(Frame frame){
+            Object value = expression.eval(frame);
+            if (value instanceof Double){
+                frame.interpreter.output.println((double)value);
+            }else{
+                frame.interpreter.output.println(Interpreter.stringify(value));
+            }
+            return NEXT;
+        }
+    }
+    static final class Block extends Statement {
+        private final Statement[] statements;
+        Block(Statement[] statements){ this.statements = statements; }
+        @Override
+        Object exec(Frame frame){
+            for (Statement statement : statements){
+                Object result = statement.exec(frame);
+                if (result != NEXT) return result;
+            }
+            return NEXT;
+        }
+    }
+    static final class If extends Statement {
+        private final Condition condition;
+        private final Statement thenBranch, elseBranch;
+        If(Condition condition, Statement thenBranch, Statement elseBranch){
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+        @Override
+        Object exec(Frame frame){
+            if (condition.test(frame)) return thenBranch.exec(frame);
+            if (elseBranch != null) return elseBranch.exec(frame);
+            return NEXT;
+        }
+    }
+    static final class While extends Statement {
+        private final Condition condition;
+        private final Statement body;
+        While(Condition condition, Statement body){
+            this.condition = condition;
+            this.body = body;
+        }
+        @Override
+        Object exec(Frame frame){
+            while (condition.test(frame)){
+                frame.interpreter.step();
+                Object result = body.exec(frame);
+                if (result != NEXT) return result;
+            }
+            return NEXT;
+        }
+    }
+    static final class Return extends Statement {
+        private final Node value;
+        Return(Node value){ this.value = value; }
+        @Override
+        Object exec(Frame frame){
+            return value == null ? null : value.eval(frame);
+        }
+    }
+}
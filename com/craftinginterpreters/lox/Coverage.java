@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+Line and branch coverage for --coverage <report.info>, written as LCOV.
+install() gives an id to every statement (blocks aside), to both branches
+of every if and to both outcomes of every 'and'/'or', and puts a probe
+in front of each. A probe sets its bit and puts the original node back
+the first time it runs, so covered code goes back to full speed. The
+flip side is that LCOV counts are 1 (ran) or 0, never real hit counts.
+
+Functions still holding probes are not compiled by the FunctionCompiler,
+code it compiled would skip them.
+*/
+class Coverage extends AstRewriter {
+    private final Path script;
+    //source line of every id, ids of a branch point come in pairs
+    private final List<Integer> lines = new ArrayList<>();
+    private final List<Integer> statements = new ArrayList<>();
+    private final List<Integer> branches = new ArrayList<>();
+    private final BitSet hits = new BitSet();
+
+    Coverage(Path script){
+        this.script = script;
+    }
+
+    void install(List<Stmt> program){
+        statements(program);
+    }
+
+    private int id(int line){
+        lines.add(line);
+        return lines.size() - 1;
+    }
+    private synchronized void hit(int id){
+        hits.set(id);
+    }
+    private synchronized boolean covered(int id){
+        return hits.get(id);
+    }
+
+    @Override
+    Stmt rewrite(Stmt stmt, int line, Slot<Stmt> slot){
+        if (stmt instanceof Stmt.Block) return stmt;
+        if (stmt instanceof Stmt.If){
+            Stmt.If branch = (Stmt.If)stmt;
+            int taken = id(line);
+            id(line);
+            branches.add(taken);
+            branch.thenBranch = new Mark(branch.thenBranch, taken,
+                                    node -> branch.thenBranch = node);
+            branch.elseBranch = new Mark(branch.elseBranch, taken + 1,
+                                    node -> branch.elseBranch = node);
+        }
+        int id = id(line);
+        statements.add(id);
+        return new Mark(stmt, id, slot);
+    }
+    @Override
+    Expr rewrite(Expr expr, Slot<Expr> slot){
+        if (!(expr instanceof Expr.Logical)) return expr;
+        Expr.Logical logical = (Expr.Logical)expr;
+        int shortCircuit = id(logical.operator.line);
+        id(logical.operator.line);
+        branches.add(shortCircuit);
+        return new LogicalMark(logical, shortCircuit, slot);
+    }
+
+    //marks a statement, or the branch of an if it stands for (which may
+    //be a missing else), as run and takes itself out of the tree
+    private final class Mark extends Stmt implements Wrapper {
+        final Stmt stmt;
+        final int id;
+        final Slot<Stmt> slot;
+        Mark(Stmt stmt, int id, Slot<Stmt> slot){
+            this.stmt = stmt;
+            this.id = id;
+            this.slot = slot;
+        }
+        @Override
+        public Object wrapped(){
+            return stmt;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor){
+            if (visitor instanceof Interpreter){
+                hit(id);
+                slot.set(stmt);
+            }
+            return stmt == null ? null : stmt.accept(visitor);
+        }
+    }
+    //evaluates 'and'/'or' itself to see which way it went, it stays until
+    //both ways were seen
+    private final class LogicalMark extends Expr implements Wrapper {
+        final Expr.Logical logical;
+        final int shortCircuit;
+        final Slot<Expr> slot;
+        LogicalMark(Expr.Logical logical, int shortCircuit, Slot<Expr> slot){
+            this.logical = logical;
+            this.shortCircuit = shortCircuit;
+            this.slot = slot;
+        }
+        @Override
+        public Object wrapped(){
+            return logical;
+        }
+        @Override
+        @SuppressWarnings("unchecked")
+        <R> R accept(Visitor<R> visitor){
+            if (!(visitor instanceof Interpreter)) return logical.accept(visitor);
+            Object left = logical.left.accept(visitor);
+            boolean truthy = Interpreter.isTruthy(left);
+            boolean skip = logical.operator.type == TokenType.OR ? truthy : !truthy;
+            hit(skip ? shortCircuit : shortCircuit + 1);
+            if (covered(shortCircuit) && covered(shortCircuit + 1)) slot.set(logical);
+            return skip ? (R)left : logical.right.accept(visitor);
+        }
+    }
+
+    void write(Path report) throws IOException{
+        //a line counts as run when any statement starting on it ran
+        Map<Integer, Boolean> lineHits = new TreeMap<>();
+        for (int id : statements){
+            lineHits.merge(lines.get(id), covered(id), Boolean::logicalOr);
+        }
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(report))){
+            out.println("TN:");
+            out.println("SF:" + script.toAbsolutePath());
+            int branchesHit = 0;
+            for (int i = 0; i < branches.size(); i++){
+                int id = branches.get(i);
+                boolean first = covered(id), second = covered(id + 1);
+                for (int way = 0; way < 2; way++){
+                    boolean taken = way == 0 ? first : second;
+                    if (taken) branchesHit++;
+                    //'-' when the branch point itself never ran
+                    String count = first || second ? (taken ? "1" : "0") : "-";
+                    out.println("BRDA:" + lines.get(id) + "," + i + "," + way + "," + count);
+                }
+            }
+            out.println("BRF:" + branches.size() * 2);
+            out.println("BRH:" + branchesHit);
+            int linesHit = 0;
+            for (Map.Entry<Integer, Boolean> line : lineHits.entrySet()){
+                if (line.getValue()) linesHit++;
+                out.println("DA:" + line.getKey() + "," + (line.getValue() ? 1 : 0));
+            }
+            out.println("LF:" + lineHits.size());
+            out.println("LH:" + linesHit);
+            out.println("end_of_record");
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Keeps one warm JVM around for many short runs:
+    jlox --daemon /tmp/lox.sock
+    java com.craftinginterpreters.lox.DaemonClient /tmp/lox.sock script.lox
+Each request runs on a pooled, already warmed up thread with its own
+Interpreter (so its own globals) and its own Session (so its own output
+and errors). Parsed and resolved scripts are cached by the SHA-256 of
+their source (and directory), a script sent again skips the Scanner,
+Parser and Resolver, and so do the modules it imports (see Module).
+The quota flags given to the daemon apply to every run.
+
+Over the socket:
+  request   PATH or SOURCE, then an int length and that many UTF-8 bytes,
+            at most -Dlox.daemonMaxRequest (16 MB by default)
+  response  STDOUT/STDERR frames (an int length and the bytes), ended
+            by EXIT and the int exit status
+*/
+class Daemon {
+    static final byte PATH = 1, SOURCE = 2;
+    static final byte EXIT = 0, STDOUT = 1, STDERR = 2;
+    //a longer request is refused before anything is allocated for it
+    private static final int MAX_REQUEST = Integer.getInteger("lox.daemonMaxRequest", 16 << 20);
+
+    //runs through every path of the interpreter before the first request
+    private static final String WARM_UP =
+        "fun fib(n){ if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n" +
+        "var s = \"\"; for (var i = 0; i < 100; i = i + 1){ s = s + i; }\n" +
+        "class Point {} var p = Point(); p.x = fib(15);\n" +
+        "var a = Array(); a.push(p.x); print a; print s;\n";
+    private static final int WARM_UP_RUNS = 200;
+
+    //a script after the front end, its locals are only read from now on
+    private static final class Script {
+        final List<Stmt> statements;
+        final Map<Expr, Integer> locals;
+        Script(List<Stmt> statements, Map<Expr, Integer> locals){
+            this.statements = statements;
+            this.locals = locals;
+        }
+    }
+
+    private final Path socket;
+    private final long maxSteps, timeout, maxMemory;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, Script> scripts;
+
+    Daemon(Path socket, long maxSteps, long timeout, long maxMemory){
+        this.socket = socket;
+        this.maxSteps = maxSteps;
+        this.timeout = timeout;
+        this.maxMemory = maxMemory;
+
+        int threads = Integer.getInteger("lox.daemonThreads",
+                            Runtime.getRuntime().availableProcessors());
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "lox-daemon-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        int capacity = Integer.getInteger("lox.daemonCache", 256);
+        scripts = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Script> eldest){
+                return size() > capacity;
+            }
+        };
+    }
+
+    void serve() throws IOException{
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)){
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try{
+                    Files.deleteIfExists(socket);
+                }catch (IOException error){
+                    //nothing left to do about it
+                }
+            }));
+            warmUp();
+            System.err.println("Listening on " + socket);
+            while (true){
+                SocketChannel client = server.accept();
+                workers.execute(() -> handle(client));
+            }
+        }
+    }
+
+    //starts every worker and gets the interpreter compiled by the JIT
+    private void warmUp(){
+        workers.prestartAllCoreThreads();
+        OutputBuffer output = new OutputBuffer(new Discard(), 1024);
+        PrintStream err = new PrintStream(Channels.newOutputStream(new Discard()));
+        List<Callable<Object>> runs = new ArrayList<>();
+        for (int i = 0; i < WARM_UP_RUNS; i++){
+            runs.add(Executors.callable(() -> {
+                Session session = new Session(output, err);
+                Lox.enter(session);
+                try{
+                    run(front(WARM_UP), session, Paths.get(""));
+                }finally{
+                    Lox.enter(null);
+                }
+            }));
+        }
+        try{
+            workers.invokeAll(runs);
+        }catch (InterruptedException error){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(SocketChannel client){
+        try (client){
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                        Channels.newInputStream(client)));
+            OutputBuffer output = new OutputBuffer(new Frames(client, STDOUT),
+                            Integer.getInteger("lox.outputBuffer", 64 * 1024));
+            PrintStream err = new PrintStream(
+                Channels.newOutputStream(new Frames(client, STDERR)), true);
+            byte kind = in.readByte();
+            int length = in.readInt();
+            int status;
+            if (length < 0 || length > MAX_REQUEST){
+                err.println("Request of " + length + " bytes refused, the limit is " +
+                            MAX_REQUEST + ".");
+                status = 64;
+            }else{
+                byte[] text = new byte[length];
+                in.readFully(text);
+                Session session = new Session(output, err);
+                Lox.enter(session);
+                try{
+                    status = request(kind, new String(text, StandardCharsets.UTF_8), session);
+                }catch (RuntimeException error){
+                    //a bug in the interpreter fails this run, not the worker
+                    err.println("Internal error: " + error);
+                    status = 70;
+                }finally{
+                    Lox.enter(null);
+                }
+            }
+            output.flush();
+            err.flush();
+
+            ByteBuffer exit = ByteBuffer.allocate(5).put(EXIT).putInt(status).flip();
+            while (exit.hasRemaining()){
+                client.write(exit);
+            }
+        }catch (IOException | UncheckedIOException error){
+            //the client went away, nothing to report to
+        }
+    }
+
+    private int request(byte kind, String text, Session session){
+        String source = text;
+        if (kind == PATH){
+            try{
+                source = new String(Files.readAllBytes(Paths.get(text)), Charset.defaultCharset());
+            }catch (IOException error){
+                session.err.println("Can't read " + text + ".");
+                return 66;
+            }
+        }
+        Path directory = kind == PATH ? Lox.directory(text) : Paths.get("");
+        run(cached(source, directory), session, directory);
+        return session.status();
+    }
+
+    private void run(Script script, Session session, Path directory){
+        if (session.hadError) return;
+        //modules that changed on disk since the last run are loaded again
+        Module.link(script.statements, directory);
+        if (session.hadError) return;
+        Interpreter interpreter = new Interpreter(session.output, script.locals);
+        if (maxSteps > 0 || timeout > 0 || maxMemory > 0){
+            interpreter.setQuota(new Quota(maxSteps, timeout, maxMemory));
+        }
+        try{
+            interpreter.interpret(script.statements);
+        }catch (StackOverflowError error){
+            //one runaway script must not take the worker down with it
+            Lox.runtimeError(new RuntimeError(null, "Stack overflow."));
+        }finally{
+            //the daemon outlives the run, so its files can't wait for exit
+            session.closeFiles();
+        }
+    }
+
+    //imports make a script's meaning depend on its directory
+    private Script cached(String source, Path directory){
+        String key = hash(directory.toAbsolutePath() + "\0" + source);
+        Script script;
+        synchronized (scripts){
+            script = scripts.get(key);
+        }
+        if (script != null) return script;
+
+        script = front(source);
+        if (Lox.session().hadError) return script;
+        synchronized (scripts){
+            scripts.put(key, script);
+        }
+        return script;
+    }
+    //scans, parses and resolves into an interpreter used only for its locals
+    private static Script front(String source){
+        Interpreter resolved = new Interpreter(Lox.session().output);
+        List<Stmt> statements = Lox.parse(resolved, source);
+        return new Script(statements, resolved.locals());
+    }
+    private static String hash(String source){
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(source.getBytes(StandardCharsets.UTF_8)));
+        }catch (NoSuchAlgorithmException error){
+            //every JVM has SHA-256
+            throw new IllegalStateException(error);
+        }
+    }
+
+    //one stream of a response, every write goes out as a frame
+    private static final class Frames implements WritableByteChannel {
+        private final SocketChannel client;
+        private final byte stream;
+
+        Frames(SocketChannel client, byte stream){
+            this.client = client;
+            this.stream = stream;
+        }
+        @Override
+        public int write(ByteBuffer bytes) throws IOException{
+            int length = bytes.remaining();
+            ByteBuffer header = ByteBuffer.allocate(5).put(stream).putInt(length).flip();
+            //stdout and stderr frames share the socket
+            synchronized (client){
+                while (header.hasRemaining()){
+                    client.write(header);
+                }
+                while (bytes.hasRemaining()){
+                    client.write(bytes);
+                }
+            }
+            return length;
+        }
+        @Override
+        public boolean isOpen(){
+            return client.isOpen();
+        }
+        @Override
+        public void close(){
+        }
+    }
+    private static final class Discard implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer bytes){
+            int length = bytes.remaining();
+            bytes.position(bytes.limit());
+            return length;
+        }
+        @Override
+        public boolean isOpen(){
+            return true;
+        }
+        @Override
+        public void close(){
+        }
+    }
+}
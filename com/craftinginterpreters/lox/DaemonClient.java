@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+//Thin client for the Daemon: sends it a script (a path, or source on stdin
+//with '-') and relays what the run prints and its exit status. It refers
+//to nothing but Daemon's constants, so starting it loads only this class.
+public class DaemonClient {
+    public static void main(String[] args) throws IOException{
+        if (args.length != 2){
+            System.out.println("Usage: DaemonClient <socket> <script | ->");
+            System.exit(64);
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]))){
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                        Channels.newOutputStream(channel)));
+            byte[] request;
+            if (args[1].equals("-")){
+                out.writeByte(Daemon.SOURCE);
+                request = System.in.readAllBytes();
+            }else{
+                //the daemon has its own working directory
+                out.writeByte(Daemon.PATH);
+                request = Paths.get(args[1]).toAbsolutePath().toString()
+                            .getBytes(StandardCharsets.UTF_8);
+            }
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                        Channels.newInputStream(channel)));
+            while (true){
+                byte stream = in.readByte();
+                if (stream == Daemon.EXIT){
+                    int status = in.readInt();
+                    System.out.flush();
+                    System.exit(status);
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                PrintStream target = stream == Daemon.STDOUT ? System.out : System.err;
+                target.write(bytes);
+                target.flush();
+            }
+        }catch (EOFException error){
+            System.err.println("Lost the connection to the daemon.");
+            System.exit(74);
+        }
+    }
+}
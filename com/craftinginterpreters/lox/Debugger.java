@@ -0,0 +1,152 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+Line debugger behind --debug, built on the Instrumenter. It stops before
+the first statement and then takes commands on stdin:
+    c            continue to the next breakpoint
+    s            step to the next statement, into calls
+    n            step over calls
+    o            run until the current call returns
+    b <line>     set a breakpoint, d <line> removes it
+    p <name>     print a variable as seen from where it stopped
+    l            list the lines around the current one
+    q            detach the debugger and run to the end
+It also stops on runtime errors, before they unwind.
+*/
+class Debugger implements Instrumenter.Listener {
+    private enum Mode {CONTINUE, STEP, NEXT, OUT}
+
+    final Instrumenter instrumenter;
+    private final String[] lines;
+    private final BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+    private final PrintStream out = System.err;
+    private final Set<Integer> breakpoints = new TreeSet<>();
+    private Mode mode = Mode.STEP;
+    //calls in progress, and how many there were when stepping started
+    private int depth = 0;
+    private int stepDepth = 0;
+    private int line = 0;
+
+    Debugger(String source){
+        lines = source.split("\n", -1);
+        instrumenter = new Instrumenter(this);
+    }
+
+    //how calls show up in traces and the debugger
+    static String describe(Expr.Call call){
+        if (call.callee instanceof Expr.Variable){
+            return ((Expr.Variable)call.callee).name.lexeme + "()";
+        }
+        if (call.callee instanceof Expr.Get){
+            return "." + ((Expr.Get)call.callee).name.lexeme + "()";
+        }
+        return "call at line " + call.paren.line;
+    }
+
+    @Override
+    public void statement(Stmt stmt, int line, Interpreter interpreter){
+        this.line = line;
+        boolean stop = breakpoints.contains(line);
+        switch (mode){
+            case STEP: stop = true; break;
+            case NEXT: stop |= depth <= stepDepth; break;
+            case OUT: stop |= depth < stepDepth; break;
+            default: break;
+        }
+        if (stop) pause(interpreter);
+    }
+    @Override
+    public void callEnter(Expr.Call call, Interpreter interpreter){
+        depth++;
+    }
+    @Override
+    public void callExit(Expr.Call call, Object result, Interpreter interpreter){
+        depth--;
+    }
+    @Override
+    public void error(RuntimeError error, Interpreter interpreter){
+        if (error.token != null) line = error.token.line;
+        Lox.session().output.flush();
+        out.println("Runtime error: " + error.getMessage());
+        pause(interpreter);
+    }
+
+    private void pause(Interpreter interpreter){
+        Lox.session().output.flush();
+        show(line);
+        while (true){
+            out.print("(debug) ");
+            out.flush();
+            String command;
+            try{
+                command = input.readLine();
+            }catch (IOException error){
+                command = null;
+            }
+            if (command == null){
+                instrumenter.detach();
+                return;
+            }
+            command = command.trim();
+            String argument = command.contains(" ") ?
+                command.substring(command.indexOf(' ') + 1).trim() : "";
+            switch (command.isEmpty() ? ' ' : command.charAt(0)){
+                case 'c': resume(Mode.CONTINUE); return;
+                case 's': resume(Mode.STEP); return;
+                case 'n': resume(Mode.NEXT); return;
+                case 'o': resume(Mode.OUT); return;
+                case 'q':
+                    instrumenter.detach();
+                    return;
+                case 'b':
+                case 'd':{
+                    Integer target = lineNumber(argument);
+                    if (target == null) break;
+                    if (command.charAt(0) == 'b') breakpoints.add(target);
+                    else breakpoints.remove(target);
+                    out.println("Breakpoints: " + breakpoints);
+                    break;
+                }
+                case 'p':
+                    try{
+                        Token name = new Token(TokenType.IDENTIFIER,
+                                            StringTable.intern(argument), null, line);
+                        out.println(argument + " = " + Interpreter.stringify(interpreter.lookUp(name)));
+                    }catch (RuntimeError error){
+                        out.println(error.getMessage());
+                    }
+                    break;
+                case 'l':
+                    for (int i = Math.max(1, line - 3); i <= Math.min(lines.length, line + 3); i++){
+                        out.println((i == line ? "-> " : "   ") + i + "  " + lines[i - 1]);
+                    }
+                    break;
+                default:
+                    out.println("Commands: c, s, n, o, b <line>, d <line>, p <name>, l, q");
+            }
+        }
+    }
+    private void resume(Mode mode){
+        this.mode = mode;
+        stepDepth = depth;
+    }
+    private void show(int line){
+        String text = line >= 1 && line <= lines.length ? lines[line - 1].trim() : "";
+        out.println("[line " + line + "] " + text);
+    }
+    private Integer lineNumber(String text){
+        try{
+            return Integer.parseInt(text);
+        }catch (NumberFormatException error){
+            out.println("Expected a line number.");
+            return null;
+        }
+    }
+}
@@ -1,22 +1,51 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Environment {
 
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap();
+    private final Map<String, Object> values;
+    //the global scope keeps each variable in a Cell that nodes can hold on
+    //to, it is shared by every spawned task so it has to be thread-safe
+    private final Map<String, Cell> cells;
 
     Environment(){
         enclosing = null;
+        values = null;
+        cells = new ConcurrentHashMap<>();
     }
     Environment(Environment enclosing){
         this.enclosing = enclosing;
+        values = new HashMap<>();
+        cells = null;
     }
     void define(String name, Object value){
+        if (cells != null){
+            cell(name).define(value);
+            return;
+        }
         values.put(name, value);
     }
+    //the cell of a global, created on first use
+    Cell cell(String name){
+        Cell cell = cells.get(name);
+        if (cell != null) return cell;
+        return cells.computeIfAbsent(name, key -> new Cell(this, key));
+    }
+    //the variables of this scope alone, used to save and restore images
+    Map<String, Object> bindings(){
+        if (cells == null) return values;
+        Map<String, Object> bindings = new LinkedHashMap<>();
+        for (Cell cell : cells.values()){
+            Object value = cell.value;
+            if (value != Cell.UNDEFINED) bindings.put(cell.name, value);
+        }
+        return bindings;
+    }
     Environment ancestor(int distance){
         Environment environment = this;
         for (int i=0; i < distance; i++){
@@ -28,17 +57,26 @@ class Environment {
         return ancestor(distance).values.get(name);
     }
     void assignAt(int distance, Token name, Object value){
-        ancestor(distance).values.put(name.lexeme, value);
+        assignAt(distance, name.lexeme, value);
+    }
+    void assignAt(int distance, String name, Object value){
+        ancestor(distance).values.put(name, value);
     }
     Object get(Token name){
-        if (values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+        if (cells != null) return cell(name.lexeme).get(name);
+        Object value = values.get(name.lexeme);
+        if (value != null || values.containsKey(name.lexeme)){
+            return value;
         }
         if (enclosing != null) return enclosing.get(name);
         throw new RuntimeError(name,
             "Dude, Undefined variable '" + name.lexeme + "'.");
     }
     void assign(Token name, Object value){
+        if (cells != null){
+            cell(name.lexeme).assign(name, value);
+            return;
+        }
         if (values.containsKey(name.lexeme)){
             values.put(name.lexeme, value);
             return;
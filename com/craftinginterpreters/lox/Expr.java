@@ -12,6 +12,8 @@ abstract class Expr {
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
         R visitSetExpr(Set expr);
+        R visitSuperExpr(Super expr);
+        R visitThisExpr(This expr);
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
     }
@@ -27,7 +29,8 @@ abstract class Expr {
         }
 
         final Token name;
-        final Expr value;
+        Expr value;
+        Cell cell;
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
@@ -41,9 +44,9 @@ abstract class Expr {
             return visitor.visitBinaryExpr(this);
         }
 
-        final Expr left;
+        Expr left;
         final Token operator;
-        final Expr right;
+        Expr right;
     }
     static class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -57,7 +60,7 @@ abstract class Expr {
             return visitor.visitCallExpr(this);
         }
 
-        final Expr callee;
+        Expr callee;
         final Token paren;
         final List<Expr> arguments;
     }
@@ -72,7 +75,7 @@ abstract class Expr {
             return visitor.visitGetExpr(this);
         }
 
-        final Expr object;
+        Expr object;
         final Token name;
     }
     static class Grouping extends Expr {
@@ -85,7 +88,7 @@ abstract class Expr {
             return visitor.visitGroupingExpr(this);
         }
 
-        final Expr expression;
+        Expr expression;
     }
     static class Literal extends Expr {
         Literal(Object value) {
@@ -111,9 +114,9 @@ abstract class Expr {
             return visitor.visitLogicalExpr(this);
         }
 
-        final Expr left;
+        Expr left;
         final Token operator;
-        final Expr right;
+        Expr right;
     }
     static class Set extends Expr {
         Set(Expr object, Token name, Expr value) {
@@ -127,9 +130,36 @@ abstract class Expr {
             return visitor.visitSetExpr(this);
         }
 
-        final Expr object;
+        Expr object;
         final Token name;
-        final Expr value;
+        Expr value;
+    }
+    static class Super extends Expr {
+        Super(Token keyword, Token method) {
+            this.keyword = keyword;
+            this.method = method;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSuperExpr(this);
+        }
+
+        final Token keyword;
+        final Token method;
+        LoxClass.SuperMethod cache;
+    }
+    static class This extends Expr {
+        This(Token keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitThisExpr(this);
+        }
+
+        final Token keyword;
     }
     static class Unary extends Expr {
         Unary(Token operator, Expr right) {
@@ -143,7 +173,7 @@ abstract class Expr {
         }
 
         final Token operator;
-        final Expr right;
+        Expr right;
     }
     static class Variable extends Expr {
         Variable(Token name) {
@@ -156,6 +186,7 @@ abstract class Expr {
         }
 
         final Token name;
+        Cell cell;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
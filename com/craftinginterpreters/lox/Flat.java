@@ -0,0 +1,276 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+
+//Where the fields of each kind of node are in a FlatAst, counted from the
+//node's header, and the visitor that writes Expr and Stmt trees there.
+//Generated by GenerateAst along with Expr and Stmt
+final class Flat {
+
+    static final int ASSIGN = 0;
+    static final int ASSIGN_NAME = 1, ASSIGN_VALUE = 3, ASSIGN_CELL = 4, ASSIGN_SIZE = 5;
+
+    static final int BINARY = 1;
+    static final int BINARY_LEFT = 1, BINARY_OPERATOR = 2, BINARY_RIGHT = 4, BINARY_SIZE = 5;
+
+    static final int CALL = 2;
+    static final int CALL_CALLEE = 1, CALL_PAREN = 2, CALL_ARGUMENTS = 4, CALL_SIZE = 5;
+
+    static final int GET = 3;
+    static final int GET_OBJECT = 1, GET_NAME = 2, GET_SIZE = 4;
+
+    static final int GROUPING = 4;
+    static final int GROUPING_EXPRESSION = 1, GROUPING_SIZE = 2;
+
+    static final int LITERAL = 5;
+    static final int LITERAL_VALUE = 1, LITERAL_SIZE = 2;
+
+    static final int LOGICAL = 6;
+    static final int LOGICAL_LEFT = 1, LOGICAL_OPERATOR = 2, LOGICAL_RIGHT = 4, LOGICAL_SIZE = 5;
+
+    static final int SET = 7;
+    static final int SET_OBJECT = 1, SET_NAME = 2, SET_VALUE = 4, SET_SIZE = 5;
+
+    static final int SUPER = 8;
+    static final int SUPER_KEYWORD = 1, SUPER_METHOD = 3, SUPER_CACHE = 5, SUPER_SIZE = 6;
+
+    static final int THIS = 9;
+    static final int THIS_KEYWORD = 1, THIS_SIZE = 3;
+
+    static final int UNARY = 10;
+    static final int UNARY_OPERATOR = 1, UNARY_RIGHT = 3, UNARY_SIZE = 4;
+
+    static final int VARIABLE = 11;
+    static final int VARIABLE_NAME = 1, VARIABLE_CELL = 3, VARIABLE_SIZE = 4;
+
+    static final int BLOCK = 12;
+    static final int BLOCK_STATEMENTS = 1, BLOCK_SIZE = 2;
+
+    static final int CLASS = 13;
+    static final int CLASS_NAME = 1, CLASS_SUPERCLASS = 3, CLASS_METHODS = 4, CLASS_SIZE = 5;
+
+    static final int EXPRESSION = 14;
+    static final int EXPRESSION_EXPRESSION = 1, EXPRESSION_SIZE = 2;
+
+    static final int FUNCTION = 15;
+    static final int FUNCTION_NAME = 1, FUNCTION_PARAMS = 3, FUNCTION_BODY = 4, FUNCTION_SIZE = 5;
+
+    static final int IF = 16;
+    static final int IF_CONDITION = 1, IF_THEN_BRANCH = 2, IF_ELSE_BRANCH = 3, IF_SIZE = 4;
+
+    static final int IMPORT = 17;
+    static final int IMPORT_KEYWORD = 1, IMPORT_PATH = 3, IMPORT_MODULE = 5, IMPORT_SIZE = 6;
+
+    static final int PRINT = 18;
+    static final int PRINT_KEYWORD = 1, PRINT_EXPRESSION = 3, PRINT_SIZE = 4;
+
+    static final int RETURN = 19;
+    static final int RETURN_KEYWORD = 1, RETURN_VALUE = 3, RETURN_SIZE = 4;
+
+    static final int VAR = 20;
+    static final int VAR_NAME = 1, VAR_INITIALIZER = 3, VAR_SIZE = 4;
+
+    static final int WHILE = 21;
+    static final int WHILE_CONDITION = 1, WHILE_BODY = 2, WHILE_SIZE = 3;
+
+    static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private final FlatAst ast;
+        //the Resolver's depths, which go into the headers of the nodes
+        private final Map<Expr, Integer> locals;
+
+        Encoder(FlatAst ast, Map<Expr, Integer> locals){
+            this.ast = ast;
+            this.locals = locals;
+        }
+
+        //the index of the node, -1 for none
+        int encode(Expr expr){
+            return expr == null ? -1 : expr.accept(this);
+        }
+        int encode(Stmt stmt){
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+        //a list is its size followed by its nodes, or its tokens
+        int exprs(List<Expr> exprs){
+            int list = ast.list(exprs.size(), 1);
+            for (int i = 0; i < exprs.size(); i++){
+                ast.set(list + 1 + i, encode(exprs.get(i)));
+            }
+            return list;
+        }
+        int stmts(List<? extends Stmt> stmts){
+            int list = ast.list(stmts.size(), 1);
+            for (int i = 0; i < stmts.size(); i++){
+                ast.set(list + 1 + i, encode(stmts.get(i)));
+            }
+            return list;
+        }
+        int tokens(List<Token> tokens){
+            int list = ast.list(tokens.size(), 2);
+            for (int i = 0; i < tokens.size(); i++){
+                ast.token(list + 1 + 2 * i, tokens.get(i));
+            }
+            return list;
+        }
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr){
+            int node = ast.node(ASSIGN, ASSIGN_SIZE, locals.get(expr));
+            ast.token(node + ASSIGN_NAME, expr.name);
+            ast.set(node + ASSIGN_VALUE, encode(expr.value));
+            ast.set(node + ASSIGN_CELL, ast.runtime(expr.cell));
+            return node;
+        }
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr){
+            int node = ast.node(BINARY, BINARY_SIZE, locals.get(expr));
+            ast.set(node + BINARY_LEFT, encode(expr.left));
+            ast.token(node + BINARY_OPERATOR, expr.operator);
+            ast.set(node + BINARY_RIGHT, encode(expr.right));
+            return node;
+        }
+        @Override
+        public Integer visitCallExpr(Expr.Call expr){
+            int node = ast.node(CALL, CALL_SIZE, locals.get(expr));
+            ast.set(node + CALL_CALLEE, encode(expr.callee));
+            ast.token(node + CALL_PAREN, expr.paren);
+            ast.set(node + CALL_ARGUMENTS, exprs(expr.arguments));
+            return node;
+        }
+        @Override
+        public Integer visitGetExpr(Expr.Get expr){
+            int node = ast.node(GET, GET_SIZE, locals.get(expr));
+            ast.set(node + GET_OBJECT, encode(expr.object));
+            ast.token(node + GET_NAME, expr.name);
+            return node;
+        }
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr){
+            int node = ast.node(GROUPING, GROUPING_SIZE, locals.get(expr));
+            ast.set(node + GROUPING_EXPRESSION, encode(expr.expression));
+            return node;
+        }
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr){
+            int node = ast.node(LITERAL, LITERAL_SIZE, locals.get(expr));
+            ast.set(node + LITERAL_VALUE, ast.constant(expr.value));
+            return node;
+        }
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr){
+            int node = ast.node(LOGICAL, LOGICAL_SIZE, locals.get(expr));
+            ast.set(node + LOGICAL_LEFT, encode(expr.left));
+            ast.token(node + LOGICAL_OPERATOR, expr.operator);
+            ast.set(node + LOGICAL_RIGHT, encode(expr.right));
+            return node;
+        }
+        @Override
+        public Integer visitSetExpr(Expr.Set expr){
+            int node = ast.node(SET, SET_SIZE, locals.get(expr));
+            ast.set(node + SET_OBJECT, encode(expr.object));
+            ast.token(node + SET_NAME, expr.name);
+            ast.set(node + SET_VALUE, encode(expr.value));
+            return node;
+        }
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr){
+            int node = ast.node(SUPER, SUPER_SIZE, locals.get(expr));
+            ast.token(node + SUPER_KEYWORD, expr.keyword);
+            ast.token(node + SUPER_METHOD, expr.method);
+            ast.set(node + SUPER_CACHE, ast.runtime(expr.cache));
+            return node;
+        }
+        @Override
+        public Integer visitThisExpr(Expr.This expr){
+            int node = ast.node(THIS, THIS_SIZE, locals.get(expr));
+            ast.token(node + THIS_KEYWORD, expr.keyword);
+            return node;
+        }
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr){
+            int node = ast.node(UNARY, UNARY_SIZE, locals.get(expr));
+            ast.token(node + UNARY_OPERATOR, expr.operator);
+            ast.set(node + UNARY_RIGHT, encode(expr.right));
+            return node;
+        }
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr){
+            int node = ast.node(VARIABLE, VARIABLE_SIZE, locals.get(expr));
+            ast.token(node + VARIABLE_NAME, expr.name);
+            ast.set(node + VARIABLE_CELL, ast.runtime(expr.cell));
+            return node;
+        }
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt){
+            int node = ast.node(BLOCK, BLOCK_SIZE, null);
+            ast.set(node + BLOCK_STATEMENTS, stmts(stmt.statements));
+            return node;
+        }
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt){
+            int node = ast.node(CLASS, CLASS_SIZE, null);
+            ast.token(node + CLASS_NAME, stmt.name);
+            ast.set(node + CLASS_SUPERCLASS, encode(stmt.superclass));
+            ast.set(node + CLASS_METHODS, stmts(stmt.methods));
+            return node;
+        }
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt){
+            int node = ast.node(EXPRESSION, EXPRESSION_SIZE, null);
+            ast.set(node + EXPRESSION_EXPRESSION, encode(stmt.expression));
+            return node;
+        }
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt){
+            int node = ast.node(FUNCTION, FUNCTION_SIZE, null);
+            ast.token(node + FUNCTION_NAME, stmt.name);
+            ast.set(node + FUNCTION_PARAMS, tokens(stmt.params));
+            ast.set(node + FUNCTION_BODY, stmts(stmt.body));
+            return node;
+        }
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt){
+            int node = ast.node(IF, IF_SIZE, null);
+            ast.set(node + IF_CONDITION, encode(stmt.condition));
+            ast.set(node + IF_THEN_BRANCH, encode(stmt.thenBranch));
+            ast.set(node + IF_ELSE_BRANCH, encode(stmt.elseBranch));
+            return node;
+        }
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt){
+            int node = ast.node(IMPORT, IMPORT_SIZE, null);
+            ast.token(node + IMPORT_KEYWORD, stmt.keyword);
+            ast.token(node + IMPORT_PATH, stmt.path);
+            ast.set(node + IMPORT_MODULE, ast.runtime(stmt.module));
+            return node;
+        }
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt){
+            int node = ast.node(PRINT, PRINT_SIZE, null);
+            ast.token(node + PRINT_KEYWORD, stmt.keyword);
+            ast.set(node + PRINT_EXPRESSION, encode(stmt.expression));
+            return node;
+        }
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt){
+            int node = ast.node(RETURN, RETURN_SIZE, null);
+            ast.token(node + RETURN_KEYWORD, stmt.keyword);
+            ast.set(node + RETURN_VALUE, encode(stmt.value));
+            return node;
+        }
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt){
+            int node = ast.node(VAR, VAR_SIZE, null);
+            ast.token(node + VAR_NAME, stmt.name);
+            ast.set(node + VAR_INITIALIZER, encode(stmt.initializer));
+            return node;
+        }
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt){
+            int node = ast.node(WHILE, WHILE_SIZE, null);
+            ast.set(node + WHILE_CONDITION, encode(stmt.condition));
+            ast.set(node + WHILE_BODY, encode(stmt.body));
+            return node;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+A resolved program with its syntax tree flattened into arrays, run by
+FlatInterpreter under --flat:
+    code       the nodes, one after the other
+    constants  literals and the lexemes of tokens, each stored once
+    runtime    what nodes keep while running (a global's Cell, the method
+               a super call found, an import's Module)
+A node starts with a header slot, its kind in the low byte and above it
+the depth the Resolver found + 1 (0 for a global, or a node that isn't a
+variable). The generated Flat gives the slot of each field after that:
+    Expr, Stmt     the child's index in code, -1 for none
+    Token          two slots, the lexeme's constant and line << 8 | type
+    List           the index in code of its size, followed by its items
+                   (one slot per node, two per token)
+    runtime field  its index in runtime
+    Object         its constant
+Children are written after their parent, in the order the interpreter
+visits them, so running a function walks forward through one int[].
+
+The tree spends an object per node (with a Token per name or operator
+and a List per block or call), and an entry in the locals map per
+variable. Here most nodes are three to six ints, so a large program's
+AST takes a fraction of the memory and its nodes sit next to each other.
+*/
+final class FlatAst {
+    private static final TokenType[] types = TokenType.values();
+
+    int[] code = new int[1024];
+    private int size = 0;
+    Object[] constants = new Object[64];
+    private int constantCount = 0;
+    Object[] runtime = new Object[64];
+    private int runtimeCount = 0;
+    //the list of top-level statements
+    int program;
+    //only while encoding
+    private Map<Object, Integer> constantIndex = new HashMap<>();
+
+    private FlatAst(){
+    }
+
+    //encodes the statements resolved into locals
+    static FlatAst encode(List<Stmt> statements, Map<Expr, Integer> locals){
+        FlatAst ast = new FlatAst();
+        ast.program = new Flat.Encoder(ast, locals).stmts(statements);
+        ast.code = Arrays.copyOf(ast.code, ast.size);
+        ast.constants = Arrays.copyOf(ast.constants, ast.constantCount);
+        ast.runtime = Arrays.copyOf(ast.runtime, ast.runtimeCount);
+        ast.constantIndex = null;
+        return ast;
+    }
+
+    //for Flat.Encoder, depth is null for nodes that aren't resolved
+    int node(int kind, int slots, Integer depth){
+        int node = reserve(slots);
+        code[node] = kind | (depth == null ? 0 : depth + 1) << 8;
+        return node;
+    }
+    //the index of a list's size, its items are written after it
+    int list(int count, int width){
+        int list = reserve(1 + count * width);
+        code[list] = count;
+        return list;
+    }
+    void set(int slot, int value){
+        code[slot] = value;
+    }
+    void token(int slot, Token token){
+        code[slot] = constant(token.lexeme);
+        code[slot + 1] = token.line << 8 | token.type.ordinal();
+    }
+    int constant(Object value){
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+        if (constantCount == constants.length){
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+    int runtime(Object value){
+        if (runtimeCount == runtime.length){
+            runtime = Arrays.copyOf(runtime, runtimeCount * 2);
+        }
+        runtime[runtimeCount] = value;
+        return runtimeCount++;
+    }
+    private int reserve(int slots){
+        if (size + slots > code.length){
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + slots));
+        }
+        int start = size;
+        size += slots;
+        return start;
+    }
+
+    //the token at slot, in parts or rebuilt for an error
+    String lexeme(int slot){
+        return (String)constants[code[slot]];
+    }
+    TokenType type(int slot){
+        return types[code[slot + 1] & 0xff];
+    }
+    Token token(int slot){
+        return new Token(type(slot), lexeme(slot), null, code[slot + 1] >>> 8);
+    }
+}
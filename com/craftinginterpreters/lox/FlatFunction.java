@@ -0,0 +1,45 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+//A function declared in a FlatAst, what LoxFunction is to the tree
+final class FlatFunction implements LoxMethod {
+    //the interpreter that declared it, whose ast has the declaration at node
+    private final FlatInterpreter declaredIn;
+    private final int node;
+    final Environment closure;
+    //an init() method, which always returns its instance
+    private final boolean isInitializer;
+
+    FlatFunction(FlatInterpreter declaredIn, int node, Environment closure, boolean isInitializer){
+        this.declaredIn = declaredIn;
+        this.node = node;
+        this.closure = closure;
+        this.isInitializer = isInitializer;
+    }
+    @Override
+    public FlatFunction bind(LoxInstance instance){
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
+        return new FlatFunction(declaredIn, node, environment, isInitializer);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments){
+        //spawned tasks and parallel workers have interpreters of their own
+        FlatInterpreter flat = declaredIn.interpreter == interpreter ? declaredIn :
+            interpreter.flat(declaredIn.ast);
+        Object result = flat.invoke(node, closure, arguments);
+        //also when init() ends with a bare 'return;'
+        return isInitializer ? closure.getAt(0, "this") : result;
+    }
+    @Override
+    public int arity(){
+        int[] code = declaredIn.ast.code;
+        return code[code[node + Flat.FUNCTION_PARAMS]];
+    }
+    @Override
+    public String toString(){
+        return "<fn " + declaredIn.ast.lexeme(node + Flat.FUNCTION_NAME) + ">";
+    }
+}
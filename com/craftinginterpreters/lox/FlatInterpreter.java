@@ -0,0 +1,364 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//Runs a FlatAst (jlox --flat). Each kind of node does what the Interpreter
+//does for it, reading its fields from the slots Flat gives instead of from
+//Expr and Stmt objects. Everything else about the run, the globals, output,
+//quota and site, stays in the Interpreter this one works for, which is also
+//what natives and imported modules (still trees) are run with.
+final class FlatInterpreter {
+    final FlatAst ast;
+    final Interpreter interpreter;
+    private final int[] code;
+    private final Object[] constants;
+    private final Object[] runtime;
+    private final Environment globals;
+    private Environment environment;
+
+    FlatInterpreter(FlatAst ast, Interpreter interpreter){
+        this.ast = ast;
+        this.interpreter = interpreter;
+        this.code = ast.code;
+        this.constants = ast.constants;
+        this.runtime = ast.runtime;
+        this.globals = interpreter.globals;
+        this.environment = globals;
+    }
+
+    void interpret(){
+        try{
+            int list = ast.program;
+            for (int i = 1; i <= code[list]; i++){
+                execute(code[list + i]);
+            }
+        }catch (RuntimeError error){
+            Lox.runtimeError(error);
+        }
+    }
+    //a call of the function declared at node, see FlatFunction
+    Object invoke(int function, Environment closure, List<Object> arguments){
+        int params = code[function + Flat.FUNCTION_PARAMS];
+        interpreter.step();
+        interpreter.allocate(Quota.ENVIRONMENT_SIZE + code[params] * Quota.BINDING_SIZE,
+                             AllocationProfiler.ENVIRONMENT, null);
+        Environment environment = new Environment(closure);
+        for (int i = 0; i < code[params]; i++){
+            environment.define(ast.lexeme(params + 1 + 2 * i), arguments.get(i));
+        }
+        try{
+            executeBlock(code[function + Flat.FUNCTION_BODY], environment);
+        }catch (Return returnValue){
+            return returnValue.value;
+        }
+        return null;
+    }
+
+    private Object evaluate(int node){
+        switch (code[node] & 0xff){
+            case Flat.ASSIGN:   return assign(node);
+            case Flat.BINARY:   return binary(node);
+            case Flat.CALL:     return call(node);
+            case Flat.GET:      return get(node);
+            case Flat.GROUPING: return evaluate(code[node + Flat.GROUPING_EXPRESSION]);
+            case Flat.LITERAL:  return constants[code[node + Flat.LITERAL_VALUE]];
+            case Flat.LOGICAL:  return logical(node);
+            case Flat.SET:      return set(node);
+            case Flat.SUPER:    return superMethod(node);
+            case Flat.THIS:     return environment.getAt(depth(node), "this");
+            case Flat.UNARY:    return unary(node);
+            case Flat.VARIABLE: return variable(node);
+        }
+        throw new IllegalStateException("Bad expression kind " + (code[node] & 0xff) + ".");
+    }
+    private void execute(int node){
+        switch (code[node] & 0xff){
+            case Flat.BLOCK:
+                interpreter.allocate(Quota.ENVIRONMENT_SIZE, AllocationProfiler.ENVIRONMENT, null);
+                executeBlock(code[node + Flat.BLOCK_STATEMENTS], new Environment(environment));
+                return;
+            case Flat.CLASS:
+                classDeclaration(node);
+                return;
+            case Flat.EXPRESSION:
+                evaluate(code[node + Flat.EXPRESSION_EXPRESSION]);
+                return;
+            case Flat.FUNCTION:{
+                int name = node + Flat.FUNCTION_NAME;
+                interpreter.allocate(Quota.CLOSURE_SIZE + Quota.BINDING_SIZE,
+                                     AllocationProfiler.CLOSURE, ast.token(name));
+                environment.define(ast.lexeme(name), new FlatFunction(this, node, environment, false));
+                return;
+            }
+            case Flat.IF:
+                if (Interpreter.isTruthy(evaluate(code[node + Flat.IF_CONDITION]))){
+                    execute(code[node + Flat.IF_THEN_BRANCH]);
+                }else if (code[node + Flat.IF_ELSE_BRANCH] >= 0){
+                    execute(code[node + Flat.IF_ELSE_BRANCH]);
+                }
+                return;
+            case Flat.IMPORT:
+                importModule(node);
+                return;
+            case Flat.PRINT:{
+                Object value = evaluate(code[node + Flat.PRINT_EXPRESSION]);
+                if (value instanceof Double){
+                    interpreter.output.println((double)value);
+                }else{
+                    interpreter.output.println(Interpreter.stringify(value));
+                }
+                return;
+            }
+            case Flat.RETURN:{
+                int value = code[node + Flat.RETURN_VALUE];
+                throw new Return(value >= 0 ? evaluate(value) : null);
+            }
+            case Flat.VAR:{
+                int initializer = code[node + Flat.VAR_INITIALIZER];
+                Object value = initializer >= 0 ? evaluate(initializer) : null;
+                int name = node + Flat.VAR_NAME;
+                interpreter.allocate(Quota.BINDING_SIZE, AllocationProfiler.ENVIRONMENT, ast.token(name));
+                environment.define(ast.lexeme(name), value);
+                return;
+            }
+            case Flat.WHILE:
+                while (Interpreter.isTruthy(evaluate(code[node + Flat.WHILE_CONDITION]))){
+                    interpreter.step();
+                    execute(code[node + Flat.WHILE_BODY]);
+                }
+                return;
+        }
+        throw new IllegalStateException("Bad statement kind " + (code[node] & 0xff) + ".");
+    }
+    private void executeBlock(int list, Environment environment){
+        Environment previous = this.environment;
+        try{
+            this.environment = environment;
+            for (int i = 1; i <= code[list]; i++){
+                execute(code[list + i]);
+            }
+        }finally{
+            this.environment = previous;
+        }
+    }
+
+    //the depth the Resolver found for the node, -1 for a global
+    private int depth(int node){
+        return (code[node] >>> 8) - 1;
+    }
+    //the global named at name, kept in the node's runtime slot
+    private Cell cell(int slot, int name){
+        Cell cell = (Cell)runtime[code[slot]];
+        if (cell == null || cell.owner != globals){
+            cell = globals.cell(ast.lexeme(name));
+            runtime[code[slot]] = cell;
+        }
+        return cell;
+    }
+    private Object variable(int node){
+        int name = node + Flat.VARIABLE_NAME;
+        int depth = depth(node);
+        if (depth >= 0) return environment.getAt(depth, ast.lexeme(name));
+        Cell cell = cell(node + Flat.VARIABLE_CELL, name);
+        Object value = cell.value;
+        //only an undefined global needs the token, for its error
+        return value != Cell.UNDEFINED ? value : cell.get(ast.token(name));
+    }
+    private Object assign(int node){
+        Object value = evaluate(code[node + Flat.ASSIGN_VALUE]);
+        int name = node + Flat.ASSIGN_NAME;
+        int depth = depth(node);
+        if (depth >= 0){
+            environment.assignAt(depth, ast.lexeme(name), value);
+        }else{
+            interpreter.assignGlobal(cell(node + Flat.ASSIGN_CELL, name), ast.token(name), value);
+        }
+        return value;
+    }
+    private Object binary(int node){
+        Object left = evaluate(code[node + Flat.BINARY_LEFT]);
+        Object right = evaluate(code[node + Flat.BINARY_RIGHT]);
+        int operator = node + Flat.BINARY_OPERATOR;
+
+        switch (ast.type(operator)){
+            case GREATER:
+                numbers(operator, left, right);
+                return (double)left > (double)right;
+            case GREATER_EQUAL:
+                numbers(operator, left, right);
+                return (double)left >= (double)right;
+            case LESS:
+                numbers(operator, left, right);
+                return (double)left < (double)right;
+            case LESS_EQUAL:
+                numbers(operator, left, right);
+                return (double)left <= (double)right;
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(left, right);
+            case MINUS:
+                numbers(operator, left, right);
+                return (double)left - (double)right;
+            case PLUS:{
+                if (left instanceof Double && right instanceof Double){
+                    return (double)left + (double)right;
+                }
+                Token token = ast.token(operator);
+                Object sum = Interpreter.add(token, left, right);
+                interpreter.allocate(Quota.stringSize((String)sum), AllocationProfiler.STRING, token);
+                return sum;
+            }
+            case SLASH:
+                numbers(operator, left, right);
+                return (double)left / (double)right;
+            case STAR:
+                numbers(operator, left, right);
+                return (double)left * (double)right;
+        }
+        //unreachable
+        return null;
+    }
+    private void numbers(int operator, Object left, Object right){
+        if (!(left instanceof Double) || !(right instanceof Double)){
+            Interpreter.checkNumberOperands(ast.token(operator), left, right);
+        }
+    }
+    private Object unary(int node){
+        Object right = evaluate(code[node + Flat.UNARY_RIGHT]);
+        int operator = node + Flat.UNARY_OPERATOR;
+
+        switch (ast.type(operator)){
+            case BANG:
+                return !Interpreter.isTruthy(right);
+            case MINUS:
+                if (!(right instanceof Double)){
+                    Interpreter.checkNumberOperand(ast.token(operator), right);
+                }
+                return -(double)right;
+        }
+        //unreachable
+        return null;
+    }
+    private Object logical(int node){
+        Object left = evaluate(code[node + Flat.LOGICAL_LEFT]);
+        if (ast.type(node + Flat.LOGICAL_OPERATOR) == TokenType.OR){
+            if (Interpreter.isTruthy(left)) return left;
+        }else{
+            if (!Interpreter.isTruthy(left)) return left;
+        }
+        return evaluate(code[node + Flat.LOGICAL_RIGHT]);
+    }
+    private Object call(int node){
+        Object callee = evaluate(code[node + Flat.CALL_CALLEE]);
+
+        int list = code[node + Flat.CALL_ARGUMENTS];
+        List<Object> arguments = new ArrayList<>(code[list]);
+        for (int i = 1; i <= code[list]; i++){
+            arguments.add(evaluate(code[list + i]));
+        }
+        Token paren = ast.token(node + Flat.CALL_PAREN);
+        if (!(callee instanceof LoxCallable)){
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.size() != function.arity()){
+            throw new RuntimeError(paren, "Expected " +
+                        function.arity() + " arguments but got " +
+                        arguments.size() + ".");
+        }
+        Token caller = interpreter.site;
+        interpreter.site = paren;
+        try{
+            return function.call(interpreter, arguments);
+        }catch (RuntimeError error){
+            //natives don't know where they were called from
+            if (error.token == null && !(error instanceof QuotaExceeded)) throw new RuntimeError(paren, error.getMessage());
+            throw error;
+        }finally{
+            interpreter.site = caller;
+        }
+    }
+    private Object get(int node){
+        Object object = evaluate(code[node + Flat.GET_OBJECT]);
+        int name = node + Flat.GET_NAME;
+        if (object instanceof LoxInstance){
+            Object value = ((LoxInstance)object).find(ast.lexeme(name));
+            if (value != LoxInstance.MISSING) return value;
+        }
+        return Interpreter.getProperty(object, ast.token(name));
+    }
+    private Object set(int node){
+        Object object = evaluate(code[node + Flat.SET_OBJECT]);
+        if (!(object instanceof LoxInstance)){
+            throw new RuntimeError(ast.token(node + Flat.SET_NAME), "Only instances have fields");
+        }
+        Object value = evaluate(code[node + Flat.SET_VALUE]);
+        ((LoxInstance)object).fields.put(ast.lexeme(node + Flat.SET_NAME), value);
+        return value;
+    }
+    private Object superMethod(int node){
+        int distance = depth(node);
+        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
+        //'this' is in the scope bind() made, just inside the one with 'super'
+        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        //kept with the superclass it was found in, see Interpreter.visitSuperExpr
+        int slot = code[node + Flat.SUPER_CACHE];
+        LoxClass.SuperMethod cached = (LoxClass.SuperMethod)runtime[slot];
+        if (cached == null || cached.superclass != superclass){
+            int name = node + Flat.SUPER_METHOD;
+            LoxMethod method = superclass.findMethod(ast.lexeme(name));
+            if (method == null){
+                throw new RuntimeError(ast.token(name), "Undefined property '" + ast.lexeme(name) + "'.");
+            }
+            cached = new LoxClass.SuperMethod(superclass, method);
+            runtime[slot] = cached;
+        }
+        return cached.method.bind(object);
+    }
+
+    private void classDeclaration(int node){
+        LoxClass superclass = null;
+        int superclassNode = code[node + Flat.CLASS_SUPERCLASS];
+        if (superclassNode >= 0){
+            Object value = evaluate(superclassNode);
+            if (!(value instanceof LoxClass)){
+                throw new RuntimeError(ast.token(superclassNode + Flat.VARIABLE_NAME),
+                                       "Superclass must be a class.");
+            }
+            superclass = (LoxClass)value;
+        }
+        int name = node + Flat.CLASS_NAME;
+        environment.define(ast.lexeme(name), null);
+        //methods close over 'super', see superMethod()
+        Environment enclosing = environment;
+        if (superclass != null){
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+        Map<String, LoxMethod> methods = new HashMap<>();
+        int list = code[node + Flat.CLASS_METHODS];
+        for (int i = 1; i <= code[list]; i++){
+            int method = code[list + i];
+            String methodName = ast.lexeme(method + Flat.FUNCTION_NAME);
+            methods.put(methodName, new FlatFunction(this, method, environment, methodName.equals("init")));
+        }
+        LoxClass klass = new LoxClass(ast.lexeme(name), superclass, methods);
+        environment = enclosing;
+        environment.assign(ast.token(name), klass);
+    }
+    private void importModule(int node){
+        Module module = (Module)runtime[code[node + Flat.IMPORT_MODULE]];
+        if (module == null){
+            //the lexeme still has its quotes
+            String path = ast.lexeme(node + Flat.IMPORT_PATH);
+            module = Module.of(Paths.get(path.substring(1, path.length() - 1)));
+        }
+        //modules run as trees, in the same globals
+        module.run(interpreter, ast.token(node + Flat.IMPORT_KEYWORD));
+    }
+}
@@ -0,0 +1,325 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.lox.CompiledFunction.Condition;
+import com.craftinginterpreters.lox.CompiledFunction.Node;
+import com.craftinginterpreters.lox.CompiledFunction.NumberNode;
+import com.craftinginterpreters.lox.CompiledFunction.Statement;
+
+/*
+Second execution tier. Once a LoxFunction has been called 'threshold'
+times its body is translated into CompiledFunction nodes:
+  - every parameter and local gets a fixed frame slot, so no Environment
+    or HashMap is touched inside the function
+  - locals whose every write is a number live unboxed in a double[] and
+    arithmetic/comparisons on them never box
+  - calls to other LoxFunctions go straight to their compiled code
+Functions that declare closures or classes, or that read locals of an
+enclosing function, are left to the tree-walking Interpreter.
+*/
+class FunctionCompiler implements Expr.Visitor<Node>, Stmt.Visitor<Statement>{
+    //-Dlox.jitThreshold=N, 0 turns the tier off
+    static final int threshold = Integer.getInteger("lox.jitThreshold", 1000);
+
+    //tools attached through an Instrumenter, see suspend()
+    private static int instrumented = 0;
+    //bumped whenever compiled code has to be thrown away
+    static volatile int generation = 0;
+
+    private static class Unsupported extends RuntimeException{
+        Unsupported(){
+            super(null, null, false, false);
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    //slots found to hold something other than a number
+    private final Set<Integer> boxed = new HashSet<>();
+    private int slotCount;
+    private boolean usesNumbers;
+    private boolean changed;
+
+    private FunctionCompiler(Interpreter interpreter){
+        this.interpreter = interpreter;
+    }
+
+    //compiled code never visits the probes an Instrumenter installs, so
+    //nothing is compiled while one is attached and existing code is dropped
+    static synchronized void suspend(){
+        instrumented++;
+        generation++;
+    }
+    static synchronized void resume(){
+        instrumented--;
+        generation++;
+    }
+
+    //null when the function uses something this tier doesn't handle
+    static CompiledFunction compile(Stmt.Function function, Interpreter interpreter){
+        synchronized (FunctionCompiler.class){
+            if (instrumented > 0) return null;
+        }
+        FunctionCompiler compiler = new FunctionCompiler(interpreter);
+        try{
+            //start by assuming every local is a number and recompile until
+            //no write contradicts the assumption
+            while (true){
+                CompiledFunction compiled = compiler.compile(function);
+                if (!compiler.changed) return compiled;
+            }
+        }catch (Unsupported unsupported){
+            return null;
+        }
+    }
+
+    private CompiledFunction compile(Stmt.Function function){
+        scopes.clear();
+        slotCount = 0;
+        usesNumbers = false;
+        changed = false;
+
+        scopes.add(new HashMap<>());
+        for (Token param : function.params){
+            declare(param, false);
+        }
+        Statement body = block(function.body);
+        return new CompiledFunction(function.params.size(), slotCount, usesNumbers, body);
+    }
+
+    private int declare(Token name, boolean number){
+        int slot = slotCount++;
+        if (!number) boxed.add(slot);
+        scopes.get(scopes.size() - 1).put(name.lexeme, slot);
+        return slot;
+    }
+    //frame slot of a resolved local, -1 for globals
+    private int slot(Expr expr, Token name){
+        Integer distance = interpreter.resolvedDepth(expr);
+        if (distance == null) return -1;
+        if (distance >= scopes.size()) throw new Unsupported();
+        Integer slot = scopes.get(scopes.size() - 1 - distance).get(name.lexeme);
+        if (slot == null) throw new Unsupported();
+        return slot;
+    }
+    private Cell global(Token name){
+        return interpreter.globals.cell(name.lexeme);
+    }
+    private boolean isNumberSlot(int slot){
+        return !boxed.contains(slot);
+    }
+    //code that still holds probes (eg. from Coverage) stays in the tree
+    private Node compile(Expr expr){
+        if (expr instanceof AstRewriter.Wrapper) throw new Unsupported();
+        return expr.accept(this);
+    }
+    private Statement compile(Stmt stmt){
+        if (stmt instanceof AstRewriter.Wrapper) throw new Unsupported();
+        return stmt.accept(this);
+    }
+    private Statement block(List<Stmt> statements){
+        Statement[] compiled = new Statement[statements.size()];
+        for (int i = 0; i < compiled.length; i++){
+            compiled[i] = compile(statements.get(i));
+        }
+        return new CompiledFunction.Block(compiled);
+    }
+    private static Statement evaluate(Node node){
+        if (node instanceof NumberNode){
+            return new CompiledFunction.EvaluateNumber((NumberNode)node);
+        }
+        return new CompiledFunction.Evaluate(node);
+    }
+    private static Condition condition(Node node){
+        if (node instanceof Condition) return (Condition)node;
+        return new CompiledFunction.Truthy(node);
+    }
+
+    @Override
+    public Statement visitBlockStmt(Stmt.Block stmt){
+        scopes.add(new HashMap<>());
+        Statement block = block(stmt.statements);
+        scopes.remove(scopes.size() - 1);
+        return block;
+    }
+    @Override
+    public Statement visitClassStmt(Stmt.Class stmt){
+        throw new Unsupported();
+    }
+    @Override
+    public Statement visitExpressionStmt(Stmt.Expression stmt){
+        return evaluate(compile(stmt.expression));
+    }
+    @Override
+    public Statement visitFunctionStmt(Stmt.Function stmt){
+        //closures need real environments
+        throw new Unsupported();
+    }
+    @Override
+    public Statement visitIfStmt(Stmt.If stmt){
+        Condition condition = condition(compile(stmt.condition));
+        Statement thenBranch = compile(stmt.thenBranch);
+        Statement elseBranch = stmt.elseBranch == null ? null : compile(stmt.elseBranch);
+        return new CompiledFunction.If(condition, thenBranch, elseBranch);
+    }
+    @Override
+    public Statement visitImportStmt(Stmt.Import stmt){
+        //the Resolver keeps imports out of functions
+        throw new Unsupported();
+    }
+    @Override
+    public Statement visitPrintStmt(Stmt.Print stmt){
+        return new CompiledFunction.Print(compile(stmt.expression));
+    }
+    @Override
+    public Statement visitReturnStmt(Stmt.Return stmt){
+        return new CompiledFunction.Return(stmt.value == null ? null : compile(stmt.value));
+    }
+    @Override
+    public Statement visitVarStmt(Stmt.Var stmt){
+        Node value = stmt.initializer == null ?
+            new CompiledFunction.Constant(null) : compile(stmt.initializer);
+        boolean number = value instanceof NumberNode && isNumberSlot(slotCount);
+        int slot = declare(stmt.name, number);
+        if (number){
+            usesNumbers = true;
+            return evaluate(new CompiledFunction.LocalNumberSet(slot, (NumberNode)value));
+        }
+        return evaluate(new CompiledFunction.LocalSet(slot, value));
+    }
+    @Override
+    public Statement visitWhileStmt(Stmt.While stmt){
+        Condition condition = condition(compile(stmt.condition));
+        return new CompiledFunction.While(condition, compile(stmt.body));
+    }
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr){
+        Node value = compile(expr.value);
+        int slot = slot(expr, expr.name);
+        if (slot < 0){
+            return new CompiledFunction.GlobalSet(expr.name, global(expr.name), value);
+        }
+        if (isNumberSlot(slot)){
+            if (value instanceof NumberNode){
+                return new CompiledFunction.LocalNumberSet(slot, (NumberNode)value);
+            }
+            //earlier reads assumed a number, compile again with the slot boxed
+            boxed.add(slot);
+            changed = true;
+        }
+        return new CompiledFunction.LocalSet(slot, value);
+    }
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr){
+        Node left = compile(expr.left);
+        Node right = compile(expr.right);
+        boolean numbers = left instanceof NumberNode && right instanceof NumberNode;
+        NumberNode a = numbers ? (NumberNode)left : null;
+        NumberNode b = numbers ? (NumberNode)right : null;
+
+        switch (expr.operator.type){
+            case PLUS:
+                if (numbers) return new CompiledFunction.Add(a, b);
+                return new CompiledFunction.Plus(expr.operator, left, right);
+            case MINUS:
+                if (numbers) return new CompiledFunction.Subtract(a, b);
+                return new CompiledFunction.CheckedArithmetic(expr.operator, left, right);
+            case STAR:
+                if (numbers) return new CompiledFunction.Multiply(a, b);
+                return new CompiledFunction.CheckedArithmetic(expr.operator, left, right);
+            case SLASH:
+                if (numbers) return new CompiledFunction.Divide(a, b);
+                return new CompiledFunction.CheckedArithmetic(expr.operator, left, right);
+            case LESS:
+                if (numbers) return new CompiledFunction.Less(a, b);
+                break;
+            case LESS_EQUAL:
+                if (numbers) return new CompiledFunction.LessEqual(a, b);
+                break;
+            case GREATER:
+                if (numbers) return new CompiledFunction.Greater(a, b);
+                break;
+            case GREATER_EQUAL:
+                if (numbers) return new CompiledFunction.GreaterEqual(a, b);
+                break;
+        }
+        return new CompiledFunction.CheckedComparison(expr.operator, left, right);
+    }
+    @Override
+    public Node visitCallExpr(Expr.Call expr){
+        Node callee = compile(expr.callee);
+        Node[] arguments = new Node[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++){
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        //speculate that a global function nobody reassigned stays put
+        if (callee instanceof CompiledFunction.GlobalGet){
+            Token name = ((Expr.Variable)expr.callee).name;
+            Cell cell = global(name);
+            Object function = cell.value;
+            if (cell.constant && function instanceof LoxFunction &&
+                    ((LoxFunction)function).arity() == arguments.length){
+                return new CompiledFunction.ConstantCall(name, expr.paren, cell,
+                                (LoxFunction)function, arguments);
+            }
+        }
+        return new CompiledFunction.Call(expr.paren, callee, arguments);
+    }
+    @Override
+    public Node visitGetExpr(Expr.Get expr){
+        return new CompiledFunction.Get(expr.name, compile(expr.object));
+    }
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr){
+        return compile(expr.expression);
+    }
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr){
+        if (expr.value instanceof Double){
+            return new CompiledFunction.NumberConstant((double)expr.value);
+        }
+        return new CompiledFunction.Constant(expr.value);
+    }
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr){
+        return new CompiledFunction.Logical(expr.operator.type == TokenType.OR,
+                            compile(expr.left), compile(expr.right));
+    }
+    @Override
+    public Node visitSetExpr(Expr.Set expr){
+        //same evaluation order as the Interpreter: object first, then value
+        Node object = compile(expr.object);
+        return new CompiledFunction.Set(expr.name, object, compile(expr.value));
+    }
+    @Override
+    public Node visitSuperExpr(Expr.Super expr){
+        //'this' and 'super' live in environments bind() makes
+        throw new Unsupported();
+    }
+    @Override
+    public Node visitThisExpr(Expr.This expr){
+        throw new Unsupported();
+    }
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr){
+        Node right = compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) return new CompiledFunction.Not(right);
+        if (right instanceof NumberNode){
+            return new CompiledFunction.NegateNumber((NumberNode)right);
+        }
+        return new CompiledFunction.Negate(expr.operator, right);
+    }
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr){
+        int slot = slot(expr, expr.name);
+        if (slot < 0) return new CompiledFunction.GlobalGet(expr.name, global(expr.name));
+        if (isNumberSlot(slot)) return new CompiledFunction.LocalNumberGet(slot);
+        return new CompiledFunction.LocalGet(slot);
+    }
+}
@@ -0,0 +1,148 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Hooks for debuggers and tracers that cost nothing while no tool is
+attached: instead of the Interpreter checking a flag on every statement,
+install() swaps probe nodes into the syntax tree around
+  - every statement except blocks (statement entry and runtime errors)
+  - every call expression (call entry and exit)
+  - every assignment, and every 'var' through its statement probe
+    (variable writes)
+and detach() puts the original nodes back. A probe only reports to the
+Listener when the Interpreter visits it, any other visitor goes straight
+through to the wrapped node.
+
+Compiled functions don't run the tree, so the FunctionCompiler is
+suspended while a tool is attached and already compiled code is dropped.
+*/
+class Instrumenter extends AstRewriter {
+    interface Listener {
+        //before a statement runs, line is that of its first token
+        default void statement(Stmt stmt, int line, Interpreter interpreter){}
+        default void callEnter(Expr.Call call, Interpreter interpreter){}
+        //result is null when the call ended with an error
+        default void callExit(Expr.Call call, Object result, Interpreter interpreter){}
+        default void variableWrite(Token name, Object value, Interpreter interpreter){}
+        //once per error, from the innermost statement it went through
+        default void error(RuntimeError error, Interpreter interpreter){}
+    }
+
+    private final Listener listener;
+    private final List<List<Stmt>> roots = new ArrayList<>();
+    private volatile boolean attached = true;
+    private RuntimeError lastError = null;
+    //true while install() walks the tree, false while detach() does
+    private boolean installing;
+
+    Instrumenter(Listener listener){
+        this.listener = listener;
+        FunctionCompiler.suspend();
+    }
+
+    //probes every statement of a program, may be called for each new chunk
+    synchronized void install(List<Stmt> statements){
+        if (!attached) return;
+        installing = true;
+        roots.add(statements);
+        statements(statements);
+    }
+    synchronized void detach(){
+        if (!attached) return;
+        attached = false;
+        installing = false;
+        for (List<Stmt> statements : roots){
+            statements(statements);
+        }
+        roots.clear();
+        FunctionCompiler.resume();
+    }
+
+    @Override
+    Stmt rewrite(Stmt stmt, int line, Slot<Stmt> slot){
+        if (!installing || stmt instanceof Stmt.Block) return stmt;
+        return new StatementProbe(stmt, line);
+    }
+    @Override
+    Expr rewrite(Expr expr, Slot<Expr> slot){
+        if (!installing) return expr;
+        if (expr instanceof Expr.Call) return new CallProbe((Expr.Call)expr);
+        if (expr instanceof Expr.Assign) return new AssignProbe((Expr.Assign)expr);
+        return expr;
+    }
+
+    private final class StatementProbe extends Stmt implements Wrapper {
+        final Stmt stmt;
+        final int line;
+        StatementProbe(Stmt stmt, int line){
+            this.stmt = stmt;
+            this.line = line;
+        }
+        @Override
+        public Object wrapped(){
+            return stmt;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor){
+            if (!(visitor instanceof Interpreter) || !attached) return stmt.accept(visitor);
+            Interpreter interpreter = (Interpreter)visitor;
+            listener.statement(stmt, line, interpreter);
+            try{
+                R result = stmt.accept(visitor);
+                if (stmt instanceof Stmt.Var){
+                    Token name = ((Stmt.Var)stmt).name;
+                    listener.variableWrite(name, interpreter.lookUp(name), interpreter);
+                }
+                return result;
+            }catch (RuntimeError error){
+                if (error != lastError && attached){
+                    lastError = error;
+                    listener.error(error, interpreter);
+                }
+                throw error;
+            }
+        }
+    }
+    private final class CallProbe extends Expr implements Wrapper {
+        final Expr.Call call;
+        CallProbe(Expr.Call call){
+            this.call = call;
+        }
+        @Override
+        public Object wrapped(){
+            return call;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor){
+            if (!(visitor instanceof Interpreter) || !attached) return call.accept(visitor);
+            Interpreter interpreter = (Interpreter)visitor;
+            listener.callEnter(call, interpreter);
+            R result = null;
+            try{
+                result = call.accept(visitor);
+                return result;
+            }finally{
+                if (attached) listener.callExit(call, result, interpreter);
+            }
+        }
+    }
+    private final class AssignProbe extends Expr implements Wrapper {
+        final Expr.Assign assign;
+        AssignProbe(Expr.Assign assign){
+            this.assign = assign;
+        }
+        @Override
+        public Object wrapped(){
+            return assign;
+        }
+        @Override
+        <R> R accept(Visitor<R> visitor){
+            if (!(visitor instanceof Interpreter) || !attached) return assign.accept(visitor);
+            R result = assign.accept(visitor);
+            if (attached) listener.variableWrite(assign.name, result, (Interpreter)visitor);
+            return result;
+        }
+    }
+}
@@ -1,19 +1,59 @@
 package com.craftinginterpreters.lox;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Interpreter implements Expr.Visitor<Object>,
                              Stmt.Visitor<Void>{
     
     //holds fixed reference to outermost global environment
-    final Environment globals = new Environment();
+    final Environment globals;
     //enviorment changes as we enter/exit local scopes
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private Environment environment;
+    //shared with spawned tasks, which read it while the resolver may still write.
+    //Each module has its own, and a call switches to that of its function
+    private Map<Expr, Integer> locals;
+    final OutputBuffer output;
+    //result caches for functions found pure by the PurityAnalyzer
+    private final Map<Stmt.Function, MemoCache> memoCaches;
+    //modules already run in these globals
+    private final Set<Path> imported;
+    //limits of the run, steps and bytes are taken from it in batches
+    private Quota quota;
+    private int steps = 0;
+    private long bytes = 0;
+    //set by --profile-alloc, samples when a batch of bytes runs out
+    private AllocationProfiler profiler;
+    //'(' of the innermost call running, where an allocation is blamed
+    Token site;
+    //set for the workers of parallelMap and parallelReduce
+    private final boolean readOnlyGlobals;
+    //runs FlatFunctions called from this interpreter, see flat()
+    private FlatInterpreter flat;
 
     Interpreter(){
+        this(OutputBuffer.stdout);
+    }
+    Interpreter(OutputBuffer output){
+        this(output, new ConcurrentHashMap<>());
+    }
+    //locals may come from an interpreter that already resolved the script
+    Interpreter(OutputBuffer output, Map<Expr, Integer> locals){
+        this.output = output;
+        globals = new Environment();
+        environment = globals;
+        this.locals = locals;
+        memoCaches = new ConcurrentHashMap<>();
+        imported = ConcurrentHashMap.newKeySet();
+        quota = Quota.unlimited;
+        readOnlyGlobals = false;
+
         //adding native/built-in function 'clock' that implements LoxCallable
         globals.define("clock", new LoxCallable(){
           @Override
@@ -27,6 +67,98 @@ class Interpreter implements Expr.Visitor<Object>,
           public String toString(){return "<native fn>";}
             
         });
+        //native growable array, eg. var a = Array(); a.push(1); a.get(0);
+        globals.define("Array", new LoxNativeFunction(0,
+            (interpreter, arguments) -> {
+                interpreter.allocate(Quota.INSTANCE_SIZE, AllocationProfiler.ARRAY, null);
+                return new LoxArray();
+            }));
+        //native hash map, eg. var m = Map(); m.put("a", 1); m.get("a");
+        globals.define("Map", new LoxNativeFunction(0,
+            (interpreter, arguments) -> {
+                interpreter.allocate(Quota.INSTANCE_SIZE, AllocationProfiler.MAP, null);
+                return new LoxMap();
+            }));
+        //a file to read or write, eg. var f = open("data.txt", "r"); f.readLine();
+        globals.define("open", new LoxNativeFunction(2, (interpreter, arguments) ->
+            LoxFile.open(arguments.get(0), arguments.get(1))));
+        //runs a zero-argument function concurrently, eg. var t = spawn(work); t.join();
+        globals.define("spawn", new LoxNativeFunction(1, (interpreter, arguments) -> {
+            Object function = arguments.get(0);
+            if (!(function instanceof LoxCallable) ||
+                    ((LoxCallable)function).arity() != 0){
+                throw new RuntimeError(null, "Can only spawn functions without parameters.");
+            }
+            return new LoxTask(interpreter, (LoxCallable)function);
+        }));
+        //run a function over an array on every core, eg. var b = parallelMap(square, a);
+        globals.define("parallelMap", new LoxNativeFunction(2, (interpreter, arguments) ->
+            Parallel.map(interpreter, arguments.get(0), arguments.get(1))));
+        globals.define("parallelReduce", new LoxNativeFunction(3, (interpreter, arguments) ->
+            Parallel.reduce(interpreter, arguments.get(0), arguments.get(1), arguments.get(2))));
+        //bounded channel for tasks, eg. var c = Channel(16); c.send(1); c.receive();
+        globals.define("Channel", new LoxNativeFunction(1, (interpreter, arguments) -> {
+            Object capacity = arguments.get(0);
+            if (!(capacity instanceof Double) || (double)capacity < 1 ||
+                    (double)capacity != Math.floor((double)capacity)){
+                throw new RuntimeError(null, "Channel capacity must be a positive whole number.");
+            }
+            return new LoxChannel((int)(double)capacity);
+        }));
+    }
+    //interpreter for a spawned task, it shares the globals and resolved
+    //variables of its parent but keeps its own current environment
+    Interpreter(Interpreter parent){
+        this(parent, false);
+    }
+    Interpreter(Interpreter parent, boolean readOnlyGlobals){
+        globals = parent.globals;
+        environment = globals;
+        locals = parent.locals;
+        output = parent.output;
+        memoCaches = parent.memoCaches;
+        imported = parent.imported;
+        quota = parent.quota;
+        profiler = parent.profiler;
+        site = parent.site;
+        this.readOnlyGlobals = readOnlyGlobals;
+    }
+    void setQuota(Quota quota){
+        this.quota = quota;
+        steps = 0;
+        bytes = 0;
+    }
+    //called on every loop iteration and function call
+    void step(){
+        if (--steps < 0) steps = quota.takeSteps() - 1;
+    }
+    void assignGlobal(Cell cell, Token name, Object value){
+        if (readOnlyGlobals){
+            throw new RuntimeError(name, "Can't assign a global in a parallel function.");
+        }
+        cell.assign(name, value);
+    }
+    //the FlatInterpreter that runs ast's functions on this interpreter's
+    //thread, made on the first call rather than on every one
+    FlatInterpreter flat(FlatAst ast){
+        FlatInterpreter flat = this.flat;
+        if (flat == null || flat.ast != ast){
+            flat = new FlatInterpreter(ast, this);
+            this.flat = flat;
+        }
+        return flat;
+    }
+    void setProfiler(AllocationProfiler profiler){
+        this.profiler = profiler;
+    }
+    //kind is a LoxClass or an AllocationProfiler label, at is the token
+    //that allocated or null for the current call site
+    void allocate(int size, Object kind, Token at){
+        bytes -= size;
+        if (bytes < 0){
+            if (profiler != null) profiler.sample(kind, at != null ? at : site, size, -bytes);
+            bytes = quota.takeBytes(-bytes);
+        }
     }
     void interpret(List<Stmt> statements){
         try{
@@ -78,39 +210,42 @@ class Interpreter implements Expr.Visitor<Object>,
     }
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
+        //a global found before, no lookup at all
+        Cell cell = expr.cell;
+        if (cell != null && cell.owner == globals) return cell.get(expr.name);
         return lookUpVariable(expr.name, expr);
     }
-    private Object lookUpVariable(Token name, Expr expr){
+    private Object lookUpVariable(Token name, Expr.Variable expr){
         Integer distance = locals.get(expr);
         if (distance != null){
             return environment.getAt(distance, name.lexeme);
         } else{
-            return globals.get(name);
+            Cell cell = globals.cell(name.lexeme);
+            expr.cell = cell;
+            return cell.get(name);
         }
     }
-    private void checkNumberOperand(Token operator, Object operand){
+    static void checkNumberOperand(Token operator, Object operand){
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number dude.");
     }
-    private boolean isTruthy(Object object){
+    static boolean isTruthy(Object object){
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
-    private boolean isEqual(Object a, Object b){
-        if (a == null && b == null) return true;
-        if (a == null) return false;
+    static boolean isEqual(Object a, Object b){
+        //interned strings that are equal are the same object
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        //no hash check first, it would be an extra pass over a fresh string
         return a.equals(b);
     }
-    private String stringify(Object object){
+    static String stringify(Object object){
         if (object == null) return "nil";
 
         if (object instanceof Double){
-            String text = object.toString();
-            if (text.endsWith(".0")){
-                text = text.substring(0, text.length()-2);
-            }
-            return text;
+            return NumberFormatter.format((double)object);
         }
         return object.toString();
     }
@@ -138,31 +273,18 @@ class Interpreter implements Expr.Visitor<Object>,
                 checkNumberOperands(expr.operator, left, right);
                 return (double)left <= (double)right;
             case BANG_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
                 return isEqual(left, right);
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
                 return (double)left - (double)right;
             case PLUS:
-                if (left instanceof String && right instanceof String){
-                    return (String)left + (String)right;
-                }
-                if (left instanceof Double && right instanceof Double){
-                    return (double)left + (double)right;
-                }
-
-                //Allow string and number concatenation 
-                if (left instanceof Double && right instanceof String){
-                    return (String)stringify(left) + (String)right;
-                }
-                if (left instanceof String && right instanceof Double){
-                    return (String)left + (String)stringify(right);
+                Object sum = add(expr.operator, left, right);
+                if (sum instanceof String){
+                    allocate(Quota.stringSize((String)sum), AllocationProfiler.STRING, expr.operator);
                 }
-                throw new RuntimeError(expr.operator, 
-                            "Dude...Operands must be either two numbers or two strings.");
+                return sum;
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
                 return (double)left / (double)right;
@@ -174,11 +296,36 @@ class Interpreter implements Expr.Visitor<Object>,
         //unreachable
         return null;
     } 
+    //'+' adds numbers and concatenates strings
+    static Object add(Token operator, Object left, Object right){
+        if (left instanceof String && right instanceof String){
+            return (String)left + (String)right;
+        }
+        if (left instanceof Double && right instanceof Double){
+            return (double)left + (double)right;
+        }
+
+        //Allow string and number concatenation 
+        //the number is formatted straight into the result
+        if (left instanceof Double && right instanceof String){
+            StringBuilder builder = new StringBuilder(((String)right).length() + 16);
+            NumberFormatter.append(builder, (double)left);
+            return builder.append((String)right).toString();
+        }
+        if (left instanceof String && right instanceof Double){
+            StringBuilder builder = new StringBuilder(((String)left).length() + 16);
+            builder.append((String)left);
+            NumberFormatter.append(builder, (double)right);
+            return builder.toString();
+        }
+        throw new RuntimeError(operator, 
+                    "Dude...Operands must be either two numbers or two strings.");
+    }
     @Override
     public Object visitCallExpr(Expr.Call expr){
         Object callee = evaluate(expr.callee);
 
-        List<Object> arguments = new ArrayList<>();
+        List<Object> arguments = new ArrayList<>(expr.arguments.size());
         for (Expr argument: expr.arguments){
             arguments.add(evaluate(argument));
         }
@@ -191,15 +338,54 @@ class Interpreter implements Expr.Visitor<Object>,
                         function.arity() + " arguments but got " +
                         arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        Token caller = site;
+        site = expr.paren;
+        try{
+            return function.call(this, arguments);
+        }catch (RuntimeError error){
+            //natives don't know where they were called from
+            if (error.token == null && !(error instanceof QuotaExceeded)) throw new RuntimeError(expr.paren, error.getMessage());
+            throw error;
+        }finally{
+            site = caller;
+        }
     }
     @Override
     public Object visitGetExpr(Expr.Get expr){
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object), expr.name);
+    }
+    @Override
+    public Object visitThisExpr(Expr.This expr){
+        return environment.getAt(locals.get(expr), "this");
+    }
+    @Override
+    public Object visitSuperExpr(Expr.Super expr){
+        int distance = locals.get(expr);
+        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
+        //'this' is in the scope bind() made, just inside the one with 'super'
+        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        //the class statement runs again for every closure over it, and each
+        //run can have a different superclass, so the method found is kept
+        //with the superclass it was found in
+        LoxClass.SuperMethod cached = expr.cache;
+        if (cached == null || cached.superclass != superclass){
+            LoxMethod method = superclass.findMethod(expr.method.lexeme);
+            if (method == null){
+                throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            }
+            cached = new LoxClass.SuperMethod(superclass, method);
+            expr.cache = cached;
+        }
+        return cached.method.bind(object);
+    }
+    static Object getProperty(Object object, Token name){
         if (object instanceof LoxInstance){
-            return ((LoxInstance)object).get(expr.name);
+            return ((LoxInstance)object).get(name);
         }
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        if (object instanceof LoxNative){
+            return ((LoxNative)object).get(name);
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
     }
     private Object evaluate(Expr expr){
         return expr.accept(this);
@@ -210,6 +396,43 @@ class Interpreter implements Expr.Visitor<Object>,
     void resolve(Expr expr, int depth){
         locals.put(expr, depth);
     }
+    //null when the variable is global
+    Integer resolvedDepth(Expr expr){
+        return locals.get(expr);
+    }
+    //a variable as seen from the current scope, for debuggers
+    Object lookUp(Token name){
+        return environment.get(name);
+    }
+    Map<Expr, Integer> locals(){
+        return locals;
+    }
+    void memoize(Stmt.Function function){
+        memoCaches.put(function, new MemoCache(function.name.lexeme,
+                            Integer.getInteger("lox.memoSize", 1024)));
+    }
+    Collection<MemoCache> memoCaches(){
+        return memoCaches.values();
+    }
+    //false when the module at path was imported before
+    boolean firstImport(Path path){
+        return imported.add(path);
+    }
+    //makes locals the resolved variables in use, returns those it replaces
+    Map<Expr, Integer> swapLocals(Map<Expr, Integer> locals){
+        Map<Expr, Integer> previous = this.locals;
+        this.locals = locals;
+        return previous;
+    }
+    //a module's top level, resolved on its own into locals
+    void executeModule(List<Stmt> statements, Map<Expr, Integer> locals){
+        Map<Expr, Integer> previous = swapLocals(locals);
+        try{
+            executeBlock(statements, globals);
+        }finally{
+            this.locals = previous;
+        }
+    }
     void executeBlock(List<Stmt> statements,Environment environment){
         Environment previous = this.environment;
         try{
@@ -226,13 +449,34 @@ class Interpreter implements Expr.Visitor<Object>,
     }
     @Override
     public Void visitBlockStmt(Stmt.Block stmt){
+        allocate(Quota.ENVIRONMENT_SIZE, AllocationProfiler.ENVIRONMENT, null);
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
     @Override
     public Void visitClassStmt(Stmt.Class stmt){
+        LoxClass superclass = null;
+        if (stmt.superclass != null){
+            Object value = evaluate(stmt.superclass);
+            if (!(value instanceof LoxClass)){
+                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            }
+            superclass = (LoxClass)value;
+        }
         environment.define(stmt.name.lexeme, null);
-        LoxClass klass = new LoxClass(stmt.name.lexeme);
+        //methods close over 'super', see visitSuperExpr
+        Environment enclosing = environment;
+        if (superclass != null){
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+        Map<String, LoxMethod> methods = new HashMap<>();
+        for (Stmt.Function method : stmt.methods){
+            methods.put(method.name.lexeme, new LoxFunction(method, environment, null, locals,
+                                                            method.name.lexeme.equals("init")));
+        }
+        LoxClass klass = new LoxClass(stmt.name.lexeme, superclass, methods);
+        environment = enclosing;
         environment.assign(stmt.name, klass);
         return null;
     }
@@ -243,7 +487,8 @@ class Interpreter implements Expr.Visitor<Object>,
     }
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt){
-        LoxFunction function = new LoxFunction(stmt, environment);
+        allocate(Quota.CLOSURE_SIZE + Quota.BINDING_SIZE, AllocationProfiler.CLOSURE, stmt.name);
+        LoxFunction function = new LoxFunction(stmt, environment, memoCaches.get(stmt), locals);
         environment.define(stmt.name.lexeme, function);
         return null;
     }
@@ -257,9 +502,21 @@ class Interpreter implements Expr.Visitor<Object>,
         return null;
     }
     @Override
+    public Void visitImportStmt(Stmt.Import stmt){
+        //Module.link fills in the module, unless the tree came from elsewhere
+        Module module = stmt.module != null ? stmt.module :
+            Module.of(Paths.get((String)stmt.path.literal));
+        module.run(this, stmt.keyword);
+        return null;
+    }
+    @Override
     public Void visitPrintStmt(Stmt.Print stmt){
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        if (value instanceof Double){
+            output.println((double)value);
+        }else{
+            output.println(stringify(value));
+        }
         return null;
     }
     @Override
@@ -275,12 +532,14 @@ class Interpreter implements Expr.Visitor<Object>,
         if (stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
+        allocate(Quota.BINDING_SIZE, AllocationProfiler.ENVIRONMENT, stmt.name);
         environment.define(stmt.name.lexeme, value);
         return null;
     }
     @Override
     public Void visitWhileStmt(Stmt.While stmt){
         while (isTruthy(evaluate(stmt.condition))){
+            step();
             execute(stmt.body);
         }
         return null;
@@ -289,15 +548,22 @@ class Interpreter implements Expr.Visitor<Object>,
     public Object visitAssignExpr(Expr.Assign expr){
         Object value = evaluate(expr.value);
 
+        Cell cell = expr.cell;
+        if (cell != null && cell.owner == globals){
+            assignGlobal(cell, expr.name, value);
+            return value;
+        }
         Integer distance = locals.get(expr);
         if (distance != null){
             environment.assignAt(distance, expr.name, value);
         }else{
-            globals.assign(expr.name, value);
+            cell = globals.cell(expr.name.lexeme);
+            expr.cell = cell;
+            assignGlobal(cell, expr.name, value);
         }
         return value;
     }
-    private void checkNumberOperands(Token operator, Object left, Object right){
+    static void checkNumberOperands(Token operator, Object left, Object right){
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be a number dude.");
     }
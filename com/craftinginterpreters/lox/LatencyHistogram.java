@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+//Counts of durations in nanoseconds, laid out like HdrHistogram with 3
+//significant digits: values below SUB_BUCKETS are counted exactly, and
+//every power of two above is split into SUB_BUCKETS / 2 equal slots, so
+//a recorded value is off by at most 1/1024 whatever its size. Recording
+//is an array increment, the memory is fixed (~430 KB) whatever the range.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 11;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * HALF];
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private double sum = 0;
+
+    void record(long nanos){
+        long value = Math.max(nanos, 0);
+        counts[index(value)]++;
+        total++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    long count(){
+        return total;
+    }
+    long min(){
+        return total == 0 ? 0 : min;
+    }
+    long max(){
+        return max;
+    }
+    double mean(){
+        return total == 0 ? 0 : sum / total;
+    }
+    //the value at or below which percentile % of the recorded values fall
+    long percentile(double percentile){
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++){
+            seen += counts[i];
+            if (seen >= rank) return Math.min(highest(i), max);
+        }
+        return max;
+    }
+
+    private static int index(long value){
+        //0 for values below SUB_BUCKETS, then one more per power of two
+        int bucket = 64 - Long.numberOfLeadingZeros(value | (SUB_BUCKETS - 1)) - SUB_BUCKET_BITS;
+        return bucket * HALF + (int)(value >>> bucket);
+    }
+    //the largest value counted in slot index
+    private static long highest(int index){
+        if (index < SUB_BUCKETS) return index;
+        int bucket = index / HALF - 1;
+        long lowest = (long)(index - bucket * HALF) << bucket;
+        return lowest + (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+//Body of a top-level function under --lazy-parse. The Parser only checked
+//that its braces balance and kept its tokens. It is parsed, and resolved
+//into the locals the Resolver would have used, the first time anything
+//looks at it, which is usually the function's first call. A library
+//function a run never calls costs a scan of its tokens and nothing more.
+final class LazyBody extends AbstractList<Stmt> {
+    private final Token name;
+    private final List<Token> params;
+    //from '{' to '}' and an EOF, dropped once parsed
+    private List<Token> tokens;
+    //set when the Resolver reaches the declaration
+    private Interpreter resolveInto = null;
+    private volatile List<Stmt> statements = null;
+    private boolean failed = false;
+
+    LazyBody(Token name, List<Token> params, List<Token> tokens){
+        this.name = name;
+        this.params = params;
+        this.tokens = tokens;
+    }
+
+    //a function body as a plain list, parsing it if it was lazy
+    static List<Stmt> parsed(List<Stmt> body){
+        return body instanceof LazyBody ? ((LazyBody)body).statements() : body;
+    }
+    boolean isParsed(){
+        return statements != null;
+    }
+    void resolveInto(Interpreter interpreter){
+        resolveInto = interpreter;
+    }
+
+    private List<Stmt> statements(){
+        List<Stmt> parsed = statements;
+        return parsed != null ? parsed : parse();
+    }
+    private synchronized List<Stmt> parse(){
+        if (statements != null) return statements;
+        if (failed) throw errors();
+
+        //errors are reported like any other, but only this body's stop it
+        Session session = Lox.session();
+        boolean hadError = session.hadError;
+        session.hadError = false;
+        List<Stmt> parsed = new Parser(tokens).body();
+        if (!session.hadError && resolveInto != null){
+            new Resolver(resolveInto).resolveBody(params, parsed);
+        }
+        failed = session.hadError;
+        session.hadError |= hadError;
+        if (failed) throw errors();
+
+        tokens = null;
+        statements = parsed;
+        return parsed;
+    }
+    private RuntimeError errors(){
+        return new RuntimeError(name, "Function '" + name.lexeme + "' has errors.");
+    }
+
+    @Override
+    public Stmt get(int index){
+        return statements().get(index);
+    }
+    @Override
+    public Stmt set(int index, Stmt stmt){
+        return statements().set(index, stmt);
+    }
+    @Override
+    public int size(){
+        return statements().size();
+    }
+}
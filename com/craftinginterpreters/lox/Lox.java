@@ -4,63 +4,301 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox{
 
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    static final Interpreter interpreter = new Interpreter();
+    //errors of the command line run, see session()
+    private static final Session main = new Session(interpreter.output, System.err);
+    private static final ThreadLocal<Session> current = new ThreadLocal<>();
+    //--memoize: cache results of functions the PurityAnalyzer proves pure
+    private static boolean memoize = false;
+    //--max-steps, --timeout and --max-memory, 0 is no limit
+    private static long maxSteps = 0;
+    private static long timeout = 0;
+    private static long maxMemory = 0;
+    //--debug or --trace, probes every script before it runs
+    private static boolean debug = false;
+    private static boolean trace = false;
+    private static Instrumenter instrumenter = null;
+    //--coverage <report>, LCOV of the script's lines and branches
+    private static String coverageReport = null;
+    private static Coverage coverage = null;
+    //--lazy-parse, see LazyBody
+    private static boolean lazyParse = false;
+    //--profile-alloc, report of sampled allocations at exit
+    private static AllocationProfiler profiler = null;
+    //--flat, run the script as a FlatAst
+    private static boolean flat = false;
+
+    //the session errors on this thread are reported to
+    static Session session(){
+        Session session = current.get();
+        return session != null ? session : main;
+    }
+    //makes this thread report to session, null goes back to the command line
+    static void enter(Session session){
+        current.set(session);
+    }
 
     public static void main(String[] args) throws IOException{
-        if(args.length > 1){
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1){
-            runFile(args[0]);
+        List<String> scripts = new ArrayList<>();
+        String aotJar = null;
+        String snapshot = null;
+        String image = null;
+        String daemon = null;
+        //--bench and the flags that only go with it, see Benchmark
+        boolean bench = false;
+        int warmup = 5;
+        int iterations = 20;
+        String function = null;
+        String json = null;
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            if (arg.equals("--memoize")){
+                memoize = true;
+            }else if (arg.equals("--aot") && i + 1 < args.length){
+                aotJar = args[++i];
+            }else if (arg.equals("--snapshot") && i + 1 < args.length){
+                snapshot = args[++i];
+            }else if (arg.equals("--image") && i + 1 < args.length){
+                image = args[++i];
+            }else if (arg.equals("--debug")){
+                debug = true;
+            }else if (arg.equals("--trace")){
+                trace = true;
+            }else if (arg.equals("--coverage") && i + 1 < args.length){
+                coverageReport = args[++i];
+            }else if (arg.equals("--lazy-parse")){
+                lazyParse = true;
+            }else if (arg.equals("--flat")){
+                flat = true;
+            }else if (arg.equals("--profile-alloc")){
+                profiler = new AllocationProfiler();
+            }else if (arg.equals("--bench")){
+                bench = true;
+            }else if (arg.equals("--warmup") && i + 1 < args.length){
+                warmup = (int)Math.min(limit(args[++i]), Integer.MAX_VALUE);
+            }else if (arg.equals("--iterations") && i + 1 < args.length){
+                iterations = (int)Math.min(limit(args[++i]), Integer.MAX_VALUE);
+            }else if (arg.equals("--function") && i + 1 < args.length){
+                function = args[++i];
+            }else if (arg.equals("--json") && i + 1 < args.length){
+                json = args[++i];
+            }else if (arg.equals("--daemon") && i + 1 < args.length){
+                daemon = args[++i];
+            }else if (arg.equals("--max-steps") && i + 1 < args.length){
+                maxSteps = limit(args[++i]);
+            }else if (arg.equals("--timeout") && i + 1 < args.length){
+                timeout = limit(args[++i]);
+            }else if (arg.equals("--max-memory") && i + 1 < args.length){
+                maxMemory = limit(args[++i]);
+            }else if (arg.startsWith("--")){
+                usage();
+            }else{
+                scripts.add(arg);
+            }
+        }
+        //these walk every function body anyway
+        if (memoize || debug || trace || coverageReport != null ||
+                aotJar != null || snapshot != null || flat){
+            lazyParse = false;
+        }
+        //the tools and the other tiers all work on trees
+        if (flat && (memoize || debug || trace || coverageReport != null || bench ||
+                aotJar != null || snapshot != null || daemon != null)){
+            usage();
+        }
+        if (bench){
+            //every iteration gets a fresh interpreter, without these
+            if (scripts.size() != 1 || iterations < 1 || memoize || debug || trace ||
+                    coverageReport != null || profiler != null || aotJar != null ||
+                    snapshot != null || image != null || daemon != null ||
+                    maxSteps > 0 || timeout > 0 || maxMemory > 0){
+                usage();
+            }
+            System.exit(new Benchmark(scripts.get(0), function, warmup, iterations).run(json));
+        }else if (function != null || json != null){
+            usage();
+        }
+        if (daemon != null){
+            //each run gets a fresh interpreter from a cached tree, which
+            //these would never reach (or report on)
+            if (!scripts.isEmpty() || memoize || debug || trace || coverageReport != null ||
+                    profiler != null || aotJar != null || snapshot != null || image != null){
+                usage();
+            }
+            new Daemon(Paths.get(daemon), maxSteps, timeout, maxMemory).serve();
+            return;
+        }
+        if (profiler != null){
+            interpreter.setQuota(new Quota(maxSteps, timeout, maxMemory, AllocationProfiler.interval));
+            interpreter.setProfiler(profiler);
+        }else if (maxSteps > 0 || timeout > 0 || maxMemory > 0){
+            interpreter.setQuota(new Quota(maxSteps, timeout, maxMemory));
+        }
+        if (image != null) loadImage(image);
+        if(scripts.size() > 1){
+            usage();
+        } else if (snapshot != null){
+            if (scripts.isEmpty()) usage();
+            snapshotFile(scripts.get(0), snapshot);
+        } else if (aotJar != null){
+            if (scripts.isEmpty()) usage();
+            compileFile(scripts.get(0), aotJar);
+        } else if (scripts.size() == 1){
+            runFile(scripts.get(0));
+        }else if (memoize || debug || trace || coverageReport != null || profiler != null){
+            //purity is decided for a whole program, not line by line, and
+            //the debugger reads its commands from stdin
+            usage();
         }else{
             runPrompt();
         }
     }
+    //a whole number, bytes may end in k, m or g
+    private static long limit(String arg){
+        if (arg.isEmpty()) usage();
+        long unit = 1;
+        switch (Character.toLowerCase(arg.charAt(arg.length() - 1))){
+            case 'k': unit = 1L << 10; break;
+            case 'm': unit = 1L << 20; break;
+            case 'g': unit = 1L << 30; break;
+        }
+        if (unit != 1) arg = arg.substring(0, arg.length() - 1);
+        try{
+            return Long.parseLong(arg) * unit;
+        }catch (NumberFormatException error){
+            usage();
+            return 0;
+        }
+    }
+    private static void usage(){
+        System.out.println("Usage: jlox [--memoize] [--lazy-parse] [script]");
+        System.out.println("       jlox --flat [script]");
+        System.out.println("       jlox --debug | --trace <script>");
+        System.out.println("       jlox --coverage <report.info> <script>");
+        System.out.println("       jlox --profile-alloc <script>");
+        System.out.println("       jlox --bench [--warmup <n>] [--iterations <n>] [--function <name>] [--json <file>] <script>");
+        System.out.println("       jlox [--max-steps <n>] [--timeout <ms>] [--max-memory <bytes>[k|m|g]] [script]");
+        System.out.println("       jlox --aot <output.jar> <script>");
+        System.out.println("       jlox --snapshot <output.img> <prelude>");
+        System.out.println("       jlox --image <prelude.img> [script]");
+        System.out.println("       jlox --daemon <socket>   (then DaemonClient <socket> <script>)");
+        System.exit(64);
+    }
     //Runs file from command-line (eg. python myprogram.py)
     private static void runFile(String path) throws IOException{
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        String source = new String(bytes, Charset.defaultCharset());
+        if (debug){
+            instrumenter = new Debugger(source).instrumenter;
+        }else if (trace){
+            instrumenter = new Instrumenter(new Tracer(System.err));
+        }
+        if (coverageReport != null) coverage = new Coverage(Paths.get(path));
+        run(source, directory(path));
+        if (coverage != null) coverage.write(Paths.get(coverageReport));
+        finish();
+    }
+    //Writes the resolved script into a standalone jar, see AotCompiler
+    private static void compileFile(String path, String jar) throws IOException{
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        List<Stmt> statements = parse(interpreter, new String(bytes, Charset.defaultCharset()));
+        if (!main.hadError) Module.link(statements, directory(path));
+        if (main.hadError) System.exit(65);
+        AotCompiler.compile(statements, interpreter, Paths.get(jar));
+    }
+    //Runs a prelude and saves the resulting globals, see Snapshot
+    private static void snapshotFile(String path, String image) throws IOException{
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        run(new String(bytes, Charset.defaultCharset()), directory(path));
+        if (main.status() == 0){
+            try{
+                Snapshot.save(interpreter, Paths.get(image));
+            }catch (IllegalArgumentException error){
+                System.err.println(error.getMessage());
+                System.exit(70);
+            }
+        }
+        finish();
+    }
+    private static void loadImage(String image) throws IOException{
+        Snapshot.load(interpreter, Paths.get(image));
+    }
+    //flushes output and exits with the status of the run
+    static void finish(){
+        main.closeFiles();
+        interpreter.output.flush();
+        if (memoize){
+            for (MemoCache cache : interpreter.memoCaches()){
+                System.err.println(cache);
+            }
+        }
+        if (profiler != null) profiler.report(System.err);
+        if (main.status() != 0) System.exit(main.status());
     }
 
     //Code for interactive interpreter
     private static void runPrompt() throws IOException{
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        //show each printed line right away when interactive
+        interpreter.output.setFlushPolicy(OutputBuffer.FlushPolicy.ON_NEWLINE);
 
         for(;;){
             System.out.print("> ");
             String line = reader.readLine();
             if(line == null) break;
-            run(line);
-            hadError = false;
+            run(line, Paths.get(""));
+            main.hadError = false;
         }
     }
 
-    private static void run(String source){
+    //imports are relative to directory
+    private static void run(String source, Path directory){
+        //under --flat the tree and its depths are only kept until encoded
+        Interpreter resolved = flat ? new Interpreter(interpreter.output) : interpreter;
+        List<Stmt> statements = parse(resolved, source);
+        if(main.hadError) return;
+        Module.link(statements, directory);
+        if(main.hadError) return;
+        if (instrumenter != null) instrumenter.install(statements);
+        if (coverage != null) coverage.install(statements);
+
+        if (flat){
+            new FlatInterpreter(FlatAst.encode(statements, resolved.locals()), interpreter).interpret();
+            return;
+        }
+        interpreter.interpret(statements);
+    }
+    //the directory a script's imports are relative to
+    static Path directory(String script){
+        Path parent = Paths.get(script).toAbsolutePath().getParent();
+        return parent != null ? parent : Paths.get("");
+    }
+    //scans, parses and resolves into interpreter, check the session's
+    //hadError before using the result
+    static List<Stmt> parse(Interpreter interpreter, String source){
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(tokens, lazyParse);
         List<Stmt> statements = parser.parse();
 
         //stop if there was a syntax error.
-        if(hadError) return;
+        if(session().hadError) return statements;
 
         Resolver resolver = new Resolver(interpreter);
         resolver.resolve(statements);
         //Stop if there was a resolution error
-        if(hadError) return;
-
-        interpreter.interpret(statements);
+        if(session().hadError) return statements;
 
+        if (memoize) new PurityAnalyzer(interpreter).analyze(statements);
+        return statements;
     }
 
     static void error(int line, String message) {
@@ -68,9 +306,12 @@ public class Lox{
     }
 
   private static void report(int line, String where, String message) {
-    System.err.println(
+    //keep stdout and stderr in order
+    Session session = session();
+    session.output.flush();
+    session.err.println(
         "[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
+    session.hadError = true;
   }
   static void error(Token token, String message){
       if (token.type == TokenType.EOF){
@@ -80,8 +321,15 @@ public class Lox{
       }
   }
   static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() + 
-                "\n[line: " + error.token.line + "]");
-        hadRuntimeError = true;
+        Session session = session();
+        session.output.flush();
+        if (error.token == null){
+            //a QuotaExceeded isn't tied to a line
+            session.err.println(error.getMessage());
+        }else{
+            session.err.println(error.getMessage() + 
+                    "\n[line: " + error.token.line + "]");
+        }
+        session.hadRuntimeError = true;
   }
 }
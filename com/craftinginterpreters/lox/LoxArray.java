@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+//Native growable array. Elements live unboxed in 'numbers' as long as every
+//element is a number; the first non-number switches the array to 'values'.
+class LoxArray implements LoxNative {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    private Object[] values = null;
+    private int size = 0;
+
+    //the methods, bound to this array when first looked up
+    private LoxNativeFunction getMethod, setMethod, pushMethod, popMethod,
+                              lengthMethod, sliceMethod;
+
+    @Override
+    public Object get(Token name){
+        //errors have no token, the call reports them at its '('
+        switch (name.lexeme){
+            case "get":
+                if (getMethod == null){
+                    getMethod = new LoxNativeFunction(1, (interpreter, arguments) ->
+                        get(index(arguments.get(0), size)));
+                }
+                return getMethod;
+            case "set":
+                if (setMethod == null){
+                    setMethod = new LoxNativeFunction(2, (interpreter, arguments) -> {
+                        set(index(arguments.get(0), size), arguments.get(1));
+                        return arguments.get(1);
+                    });
+                }
+                return setMethod;
+            case "push":
+                if (pushMethod == null){
+                    pushMethod = new LoxNativeFunction(1, (interpreter, arguments) -> {
+                        interpreter.allocate(Quota.SLOT_SIZE, AllocationProfiler.ARRAY, null);
+                        push(arguments.get(0));
+                        return null;
+                    });
+                }
+                return pushMethod;
+            case "pop":
+                if (popMethod == null){
+                    popMethod = new LoxNativeFunction(0, (interpreter, arguments) -> {
+                        if (size == 0){
+                            throw new RuntimeError(null, "Can't pop from an empty array.");
+                        }
+                        return pop();
+                    });
+                }
+                return popMethod;
+            case "length":
+                if (lengthMethod == null){
+                    lengthMethod = new LoxNativeFunction(0, (interpreter, arguments) ->
+                        (double)size);
+                }
+                return lengthMethod;
+            case "slice":
+                if (sliceMethod == null){
+                    sliceMethod = new LoxNativeFunction(2, (interpreter, arguments) -> {
+                        int from = index(arguments.get(0), size + 1);
+                        int to = index(arguments.get(1), size + 1);
+                        if (from > to){
+                            throw new RuntimeError(null, "Slice start is after its end.");
+                        }
+                        interpreter.allocate((to - from) * Quota.SLOT_SIZE, AllocationProfiler.ARRAY, null);
+                        return slice(from, to);
+                    });
+                }
+                return sliceMethod;
+        }
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    int length(){
+        return size;
+    }
+    Object get(int index){
+        if (values != null) return values[index];
+        return numbers[index];
+    }
+    void set(int index, Object value){
+        if (values == null){
+            if (value instanceof Double){
+                numbers[index] = (double)value;
+                return;
+            }
+            generalize();
+        }
+        values[index] = value;
+    }
+    void push(Object value){
+        if (values == null){
+            if (value instanceof Double){
+                if (size == numbers.length){
+                    numbers = Arrays.copyOf(numbers, size * 2);
+                }
+                numbers[size++] = (double)value;
+                return;
+            }
+            generalize();
+        }
+        if (size == values.length){
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+    Object pop(){
+        Object value = get(size - 1);
+        size--;
+        //drop the reference so the popped element can be collected
+        if (values != null) values[size] = null;
+        return value;
+    }
+    LoxArray slice(int from, int to){
+        LoxArray slice = new LoxArray();
+        int length = Math.max(to - from, INITIAL_CAPACITY);
+        if (values == null){
+            slice.numbers = Arrays.copyOfRange(numbers, from, from + length);
+        }else{
+            slice.numbers = null;
+            slice.values = Arrays.copyOfRange(values, from, from + length);
+            //copyOfRange pads past our end with our own trailing slots
+            Arrays.fill(slice.values, to - from, length, null);
+        }
+        slice.size = to - from;
+        return slice;
+    }
+
+    //switch from the unboxed number store to the general object store
+    private void generalize(){
+        values = new Object[numbers.length];
+        for (int i = 0; i < size; i++){
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+    private static int index(Object index, int limit){
+        if (index instanceof Double){
+            double value = (double)index;
+            int i = (int)value;
+            if (i == value && i >= 0 && i < limit) return i;
+            throw new RuntimeError(null, "Array index " +
+                        Interpreter.stringify(index) + " is out of bounds.");
+        }
+        throw new RuntimeError(null, "Array index must be a number.");
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++){
+            if (i > 0) builder.append(", ");
+            Object value = get(i);
+            if (value instanceof Double){
+                NumberFormatter.append(builder, (double)value);
+            }else{
+                builder.append(Interpreter.stringify(value));
+            }
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//Bounded channel for passing values between tasks, created by Channel(capacity)
+class LoxChannel implements LoxNative {
+    //the queue can't hold null, so nil travels as this marker
+    private static final Object NIL = new Object();
+    private final BlockingQueue<Object> queue;
+
+    LoxChannel(int capacity){
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public Object get(Token name){
+        switch (name.lexeme){
+            case "send":
+                return new LoxNativeFunction(1, (interpreter, arguments) -> {
+                    Object value = arguments.get(0);
+                    try{
+                        queue.put(value == null ? NIL : value);
+                    }catch (InterruptedException error){
+                        throw interrupted(name);
+                    }
+                    return value;
+                });
+            case "receive":
+                return new LoxNativeFunction(0, (interpreter, arguments) -> {
+                    try{
+                        Object value = queue.take();
+                        return value == NIL ? null : value;
+                    }catch (InterruptedException error){
+                        throw interrupted(name);
+                    }
+                });
+        }
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    private static RuntimeError interrupted(Token name){
+        Thread.currentThread().interrupt();
+        return new RuntimeError(name, "Interrupted while waiting on channel.");
+    }
+
+    @Override
+    public String toString(){
+        return "<channel>";
+    }
+}
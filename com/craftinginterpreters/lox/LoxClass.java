@@ -1,12 +1,47 @@
 package com.craftinginterpreters.lox;
-import java.util.List; 
-import java.util.Map; 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+//A class and its methods. The method table is flattened: a class starts
+//from a copy of its superclass's table (which already holds everything
+//inherited from further up) and then adds its own methods over it, so
+//finding a method is one HashMap probe however deep the hierarchy is.
+//Classes can't change once created, so the copies never go stale.
 class LoxClass implements LoxCallable{
     final String name;
-    
+    final LoxClass superclass;
+    //own and inherited methods
+    private final Map<String, LoxMethod> methods;
+    //own methods only, for Snapshot
+    final Map<String, LoxMethod> declared;
+    private final LoxMethod initializer;
+
+    //what super.name found in one superclass, see Interpreter.visitSuperExpr
+    static final class SuperMethod {
+        final LoxClass superclass;
+        final LoxMethod method;
+        SuperMethod(LoxClass superclass, LoxMethod method){
+            this.superclass = superclass;
+            this.method = method;
+        }
+    }
+
     LoxClass(String name){
+        this(name, null, new HashMap<>());
+    }
+    LoxClass(String name, LoxClass superclass, Map<String, LoxMethod> methods){
         this.name = name;
+        this.superclass = superclass;
+        this.declared = methods;
+        this.methods = superclass != null ? new HashMap<>(superclass.methods) : new HashMap<>();
+        this.methods.putAll(methods);
+        this.initializer = this.methods.get("init");
+    }
+
+    //null when neither the class nor a superclass has the method
+    LoxMethod findMethod(String name){
+        return methods.get(name);
     }
 
     @Override
@@ -15,11 +50,15 @@ class LoxClass implements LoxCallable{
     }
     @Override
     public Object call(Interpreter interperter, List<Object> arguments){
+        interperter.allocate(Quota.INSTANCE_SIZE, this, null);
         LoxInstance instance = new LoxInstance(this);
+        if (initializer != null){
+            initializer.bind(instance).call(interperter, arguments);
+        }
         return instance;
     }
     @Override
     public int arity(){
-        return 0;
+        return initializer == null ? 0 : initializer.arity();
     }
 }
@@ -0,0 +1,262 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+A file opened by a script, the mode is "r", "w" or "a" (append):
+    var log = open("access.log", "r");
+    var line = log.readLine();
+    while (line != nil){ ... line = log.readLine(); }
+    log.close();
+    var report = open("report.txt", "w");
+    report.writeLine("total " + total);
+    report.close();
+Paths are relative to the working directory. Lox strings have no escapes,
+so writeLine is the way to end a line: it writes its argument and "\n",
+the line ending readLine strips.
+
+Reading goes through a window of the file mapped into memory (64 MB by
+default, -Dlox.mapWindow), moved along as lines are read, so a file of
+any size streams at the speed of the page cache with constant heap.
+readLine finds the next '\n' in the mapped bytes eight at a time (SWAR,
+on longs read from the window) and decodes only that line. readAll
+decodes what's left of the file in one string.
+
+Writes are buffered like print and go out when the buffer fills or on
+close(). Files the script never closed are closed when its run ends
+(Session.closeFiles), or failing that at exit.
+*/
+class LoxFile implements LoxNative {
+    private static final int WINDOW = Integer.getInteger("lox.mapWindow", 64 << 20);
+    //for finding a '\n' byte in a long
+    private static final long NEWLINES = 0x0a0a0a0a0a0a0a0aL;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    //files being written, flushed at exit if their run never ended
+    private static final Set<LoxFile> unclosed = ConcurrentHashMap.newKeySet();
+    static{
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (LoxFile file : unclosed){
+                file.out.flush();
+            }
+        }));
+    }
+
+    private final String path;
+    private final FileChannel channel;
+    //the run that opened the file
+    private final Session session;
+    private boolean closed = false;
+    //reading: the file's size when opened and the part of it mapped,
+    //which starts at windowStart
+    private final long size;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    //bytes of the line being decoded
+    private byte[] line = new byte[256];
+    //writing, null when reading
+    private final OutputBuffer out;
+
+    private LoxFile(String path, FileChannel channel, boolean writing) throws IOException{
+        this.path = path;
+        this.channel = channel;
+        this.session = Lox.session();
+        session.files.add(this);
+        this.size = writing ? 0 : channel.size();
+        this.out = writing ? new OutputBuffer(channel, 64 * 1024) : null;
+        if (writing) unclosed.add(this);
+    }
+
+    static LoxFile open(Object path, Object mode){
+        if (!(path instanceof String) || !(mode instanceof String)){
+            throw new RuntimeError(null, "open needs a path and a mode.");
+        }
+        StandardOpenOption[] options;
+        switch ((String)mode){
+            case "r":
+                options = new StandardOpenOption[]{StandardOpenOption.READ};
+                break;
+            case "w":
+                options = new StandardOpenOption[]{StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+                break;
+            case "a":
+                options = new StandardOpenOption[]{StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND};
+                break;
+            default:
+                throw new RuntimeError(null, "File mode must be \"r\", \"w\" or \"a\".");
+        }
+        try{
+            Path file = Paths.get((String)path);
+            return new LoxFile((String)path, FileChannel.open(file, options), !mode.equals("r"));
+        }catch (IOException | RuntimeException error){
+            throw new RuntimeError(null, "Can't open '" + path + "': " + reason(error));
+        }
+    }
+
+    @Override
+    public Object get(Token name){
+        switch (name.lexeme){
+            case "readLine":
+                return new LoxNativeFunction(0, (interpreter, arguments) -> {
+                    String line = readLine(name);
+                    if (line != null){
+                        interpreter.allocate(Quota.stringSize(line), AllocationProfiler.STRING, name);
+                    }
+                    return line;
+                });
+            case "readAll":
+                return new LoxNativeFunction(0, (interpreter, arguments) -> {
+                    String text = readAll(name);
+                    interpreter.allocate(Quota.stringSize(text), AllocationProfiler.STRING, name);
+                    return text;
+                });
+            case "write":
+                return new LoxNativeFunction(1, (interpreter, arguments) -> {
+                    write(name, Interpreter.stringify(arguments.get(0)), false);
+                    return null;
+                });
+            case "writeLine":
+                return new LoxNativeFunction(1, (interpreter, arguments) -> {
+                    write(name, Interpreter.stringify(arguments.get(0)), true);
+                    return null;
+                });
+            case "close":
+                return new LoxNativeFunction(0, (interpreter, arguments) -> {
+                    close(name);
+                    return null;
+                });
+        }
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    //the next line without its "\n" or "\r\n", null at the end of the file
+    String readLine(Token name){
+        check(name, false);
+        try{
+            if (window == null) map(0, WINDOW);
+            while (true){
+                int from = window.position();
+                int limit = window.limit();
+                int end = indexOfNewline(from, limit);
+                if (end >= 0){
+                    window.position(end + 1);
+                    if (end > from && window.get(end - 1) == '\r') end--;
+                    return decode(from, end);
+                }
+                if (windowStart + limit == size){
+                    if (from == limit) return null;
+                    window.position(limit);
+                    return decode(from, limit);
+                }
+                //the line goes on past the window, which moves to its start
+                //and grows when the line is longer than the whole window
+                if (from == 0 && limit == Integer.MAX_VALUE){
+                    throw new RuntimeError(name, "Line too long in '" + path + "'.");
+                }
+                map(windowStart + from, from == 0 ? limit * 2L : WINDOW);
+            }
+        }catch (IOException error){
+            throw new RuntimeError(name, "Can't read '" + path + "': " + reason(error));
+        }
+    }
+    //the rest of the file
+    String readAll(Token name){
+        check(name, false);
+        try{
+            long start = window == null ? 0 : windowStart + window.position();
+            if (size - start > Integer.MAX_VALUE - 8){
+                throw new RuntimeError(name, "'" + path + "' is too large to read at once.");
+            }
+            map(start, size - start);
+            //not through 'line', which would stay this large
+            byte[] bytes = new byte[window.limit()];
+            window.get(0, bytes);
+            window.position(window.limit());
+            return new String(bytes, Charset.defaultCharset());
+        }catch (IOException error){
+            throw new RuntimeError(name, "Can't read '" + path + "': " + reason(error));
+        }
+    }
+    void write(Token name, String text, boolean line){
+        check(name, true);
+        try{
+            if (line) out.println(text);
+            else out.print(text);
+        }catch (UncheckedIOException error){
+            throw new RuntimeError(name, "Can't write '" + path + "': " + reason(error.getCause()));
+        }
+    }
+    void close(Token name){
+        if (closed) return;
+        closed = true;
+        session.files.remove(this);
+        try{
+            if (out != null){
+                unclosed.remove(this);
+                out.flush();
+            }
+            channel.close();
+        }catch (IOException | UncheckedIOException error){
+            throw new RuntimeError(name, "Can't close '" + path + "': " + reason(error));
+        }
+        //the mapping itself goes when the buffer is collected
+        window = null;
+    }
+
+    private void check(Token name, boolean writing){
+        if (closed) throw new RuntimeError(name, "'" + path + "' is closed.");
+        if (writing && out == null){
+            throw new RuntimeError(name, "'" + path + "' is open for reading.");
+        }
+        if (!writing && out != null){
+            throw new RuntimeError(name, "'" + path + "' is open for writing.");
+        }
+    }
+    private void map(long start, long length) throws IOException{
+        windowStart = start;
+        length = Math.min(Math.min(length, Integer.MAX_VALUE), size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        //the first byte in the file is the lowest of a long, see indexOfNewline
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    private int indexOfNewline(int from, int limit){
+        int i = from;
+        for (; i + 8 <= limit; i += 8){
+            long bytes = window.getLong(i) ^ NEWLINES;
+            //the high bit of each byte that was a '\n', exact up to the first
+            long found = (bytes - ONES) & ~bytes & HIGHS;
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < limit; i++){
+            if (window.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+    private String decode(int from, int to){
+        int length = to - from;
+        if (length > line.length) line = new byte[Math.max(length, line.length * 2)];
+        window.get(from, line, 0, length);
+        return new String(line, 0, length, Charset.defaultCharset());
+    }
+    private static String reason(Throwable error){
+        return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+    }
+
+    @Override
+    public String toString(){
+        return "<file " + path + ">";
+    }
+}
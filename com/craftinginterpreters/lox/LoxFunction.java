@@ -1,18 +1,138 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
-class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
+class LoxFunction implements LoxMethod {
+    //what the tiers know about a declaration, shared by a method and every
+    //copy bind() makes of it so a method called through many instances
+    //still gets hot. Spawned tasks and parallel workers call the same
+    //functions, so one thread compiles and the others see its result.
+    private static final class Tier {
+        //the declaration's body, parsed by now if it was a LazyBody
+        volatile List<Stmt> body = null;
+        //set once the function got hot enough for the FunctionCompiler
+        volatile CompiledFunction compiled = null;
+        volatile boolean compileFailed = false;
+        final AtomicInteger calls = new AtomicInteger();
+        //FunctionCompiler.generation when compiled was last decided
+        volatile int generation = FunctionCompiler.generation;
 
-    LoxFunction(Stmt.Function declaration, Environment closure){
+        //a tool attached or detached, start over in the interpreter
+        synchronized void reset(){
+            if (generation == FunctionCompiler.generation) return;
+            generation = FunctionCompiler.generation;
+            compiled = null;
+            compileFailed = false;
+            calls.set(0);
+        }
+        //calls that raced past the threshold wait for the one compiling
+        synchronized CompiledFunction compile(Stmt.Function declaration, Interpreter interpreter){
+            if (compiled == null && !compileFailed){
+                CompiledFunction code = FunctionCompiler.compile(declaration, interpreter);
+                compileFailed = code == null;
+                compiled = code;
+            }
+            return compiled;
+        }
+    }
+
+    final Stmt.Function declaration;
+    final Environment closure;
+    //where the Resolver put the depths of the declaration's variables
+    private final Map<Expr, Integer> locals;
+    //an init() method, which always returns its instance
+    private final boolean isInitializer;
+    //only set for functions the PurityAnalyzer proved pure
+    private final MemoCache memo;
+    private final Tier tier;
+
+    LoxFunction(Stmt.Function declaration, Environment closure, MemoCache memo,
+                Map<Expr, Integer> locals){
+        this(declaration, closure, memo, locals, false);
+    }
+    LoxFunction(Stmt.Function declaration, Environment closure, MemoCache memo,
+                Map<Expr, Integer> locals, boolean isInitializer){
+        this(declaration, closure, memo, locals, isInitializer, new Tier());
+    }
+    private LoxFunction(Stmt.Function declaration, Environment closure, MemoCache memo,
+                Map<Expr, Integer> locals, boolean isInitializer, Tier tier){
         this.closure = closure;
         this.declaration = declaration;
+        this.memo = memo;
+        this.locals = locals;
+        this.isInitializer = isInitializer;
+        this.tier = tier;
+    }
+    //the method with 'this' bound to instance, in a scope of its own
+    //between the method and its closure, where the Resolver expects it
+    @Override
+    public LoxFunction bind(LoxInstance instance){
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
+        return new LoxFunction(declaration, environment, null, locals, isInitializer, tier);
+    }
+    boolean isInitializer(){
+        return isInitializer;
+    }
+    //where the declaration was resolved, for Snapshot
+    Map<Expr, Integer> locals(){
+        return locals;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments){
+        if (memo == null) return invoke(interpreter, arguments);
+
+        Object result = memo.get(arguments);
+        if (result == MemoCache.MISSING){
+            result = invoke(interpreter, arguments);
+            memo.put(arguments, result);
+        }
+        return result;
+    }
+    //entry point for compiled callers, which keep arguments in an array
+    Object call(Interpreter interpreter, Object[] arguments){
+        CompiledFunction code = tier.compiled;
+        if (code != null && memo == null && !isInitializer &&
+                tier.generation == FunctionCompiler.generation){
+            return code.invoke(interpreter, arguments);
+        }
+        return call(interpreter, Arrays.asList(arguments));
+    }
+    private Object invoke(Interpreter interpreter, List<Object> arguments){
+        //the declaration may come from another module than the caller
+        Map<Expr, Integer> callerLocals = interpreter.swapLocals(locals);
+        try{
+            Object result = run(interpreter, arguments);
+            //also when init() ends with a bare 'return;'
+            return isInitializer ? closure.getAt(0, "this") : result;
+        }finally{
+            interpreter.swapLocals(callerLocals);
+        }
+    }
+    private Object run(Interpreter interpreter, List<Object> arguments){
+        Tier tier = this.tier;
+        List<Stmt> body = tier.body;
+        if (body == null){
+            body = LazyBody.parsed(declaration.body);
+            tier.body = body;
+        }
+        if (tier.generation != FunctionCompiler.generation) tier.reset();
+        CompiledFunction code = tier.compiled;
+        //>=, another thread's increment may have stepped past the threshold
+        if (code == null && !tier.compileFailed && FunctionCompiler.threshold > 0 &&
+                tier.calls.incrementAndGet() >= FunctionCompiler.threshold){
+            code = tier.compile(declaration, interpreter);
+        }
+        if (code != null) return code.invoke(interpreter, arguments);
+
+        interpreter.step();
+        interpreter.allocate(Quota.ENVIRONMENT_SIZE +
+                             declaration.params.size() * Quota.BINDING_SIZE,
+                             AllocationProfiler.ENVIRONMENT, null);
         //a new env is created when the func is called
         Environment environment = new Environment(closure);
         for (int i=0; i < declaration.params.size(); i++){
@@ -21,7 +141,7 @@ class LoxFunction implements LoxCallable {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
         try{
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(body, environment);
         }
         // unwinds callstack to callee scope and returns value if 'return' stmt is found
         catch(Return returnValue){
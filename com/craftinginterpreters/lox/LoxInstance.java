@@ -3,19 +3,32 @@ import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
-    private LoxClass klass;    
-    private final Map<String, Object> fields = new HashMap<>();
+    //for find() when there's no such property
+    static final Object MISSING = new Object();
+
+    final LoxClass klass;
+    final Map<String, Object> fields = new HashMap<>();
 
     LoxInstance(LoxClass klass){
         this.klass = klass;
     }
     Object get(Token name){
-        if (fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
-        }
+        Object value = find(name.lexeme);
+        if (value != MISSING) return value;
 
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
+    //the field or bound method, MISSING when there is neither
+    Object find(String name){
+        Object value = fields.get(name);
+        if (value != null || fields.containsKey(name)){
+            return value;
+        }
+        //fields shadow methods
+        LoxMethod method = klass.findMethod(name);
+        if (method != null) return method.bind(this);
+        return MISSING;
+    }
     void set(Token name, Object value){
         fields.put(name.lexeme, value);
     }
@@ -0,0 +1,248 @@
+package com.craftinginterpreters.lox;
+
+//Native hash map, eg. var m = Map(); m.put("a", 1); m.get("a"); m.keys();
+//Keys are compared the way == compares them and can be anything but nil.
+//Entries are kept in insertion order in parallel arrays, number keys as
+//their bits in 'numbers' (never boxed), with the hash of every key so a
+//probe compares ints first and a string key's hash is computed once.
+//'index' is an open-addressing table of entry positions, at most half
+//full. A removed entry stays in place until the next rebuild, which also
+//drops it from the index.
+class LoxMap implements LoxNative {
+    private static final int INITIAL_CAPACITY = 8;
+    //in keys, for a number key whose bits are in numbers
+    private static final Object NUMBER = new Object();
+    //in keys, for a removed entry
+    private static final Object REMOVED = new Object();
+
+    //entry position + 1, 0 is an empty slot
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+    //a hash's slot is its top bits
+    private int shift = shift(index.length);
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private long[] numbers = new long[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    //entries used, removed ones included
+    private int count = 0;
+    private int size = 0;
+
+    //the methods, bound to this map when first looked up
+    private LoxNativeFunction getMethod, putMethod, hasMethod, removeMethod,
+                              sizeMethod, keysMethod, valuesMethod;
+
+    @Override
+    public Object get(Token name){
+        //errors have no token, the call reports them at its '('
+        switch (name.lexeme){
+            case "get":
+                if (getMethod == null){
+                    getMethod = new LoxNativeFunction(1, (interpreter, arguments) ->
+                        get(checkKey(arguments.get(0))));
+                }
+                return getMethod;
+            case "put":
+                if (putMethod == null){
+                    putMethod = new LoxNativeFunction(2, (interpreter, arguments) -> {
+                        if (put(checkKey(arguments.get(0)), arguments.get(1))){
+                            interpreter.allocate(Quota.ENTRY_SIZE, AllocationProfiler.MAP, null);
+                        }
+                        return arguments.get(1);
+                    });
+                }
+                return putMethod;
+            case "has":
+                if (hasMethod == null){
+                    hasMethod = new LoxNativeFunction(1, (interpreter, arguments) ->
+                        find(checkKey(arguments.get(0))) >= 0);
+                }
+                return hasMethod;
+            case "remove":
+                if (removeMethod == null){
+                    removeMethod = new LoxNativeFunction(1, (interpreter, arguments) ->
+                        remove(checkKey(arguments.get(0))));
+                }
+                return removeMethod;
+            case "size":
+                if (sizeMethod == null){
+                    sizeMethod = new LoxNativeFunction(0, (interpreter, arguments) ->
+                        (double)size);
+                }
+                return sizeMethod;
+            case "keys":
+                if (keysMethod == null){
+                    keysMethod = new LoxNativeFunction(0, (interpreter, arguments) -> {
+                        interpreter.allocate(Quota.INSTANCE_SIZE + size * Quota.SLOT_SIZE,
+                                             AllocationProfiler.ARRAY, null);
+                        return keys();
+                    });
+                }
+                return keysMethod;
+            case "values":
+                if (valuesMethod == null){
+                    valuesMethod = new LoxNativeFunction(0, (interpreter, arguments) -> {
+                        interpreter.allocate(Quota.INSTANCE_SIZE + size * Quota.SLOT_SIZE,
+                                             AllocationProfiler.ARRAY, null);
+                        return values();
+                    });
+                }
+                return valuesMethod;
+        }
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    int size(){
+        return size;
+    }
+    //nil when there's no such key
+    Object get(Object key){
+        int entry = find(key);
+        return entry >= 0 ? values[entry] : null;
+    }
+    //true when key is new
+    boolean put(Object key, Object value){
+        int entry = find(key);
+        if (entry >= 0){
+            values[entry] = value;
+            return false;
+        }
+        if (count == keys.length) rebuild();
+        int hash = hash(key);
+        hashes[count] = hash;
+        if (key instanceof Double){
+            keys[count] = NUMBER;
+            numbers[count] = Double.doubleToLongBits((double)key);
+        }else{
+            //later lookups with a literal or a name are then decided on identity
+            keys[count] = key instanceof String ? StringTable.intern((String)key) : key;
+        }
+        values[count] = value;
+        insert(hash, count);
+        count++;
+        size++;
+        return true;
+    }
+    //the value removed, nil when there was none
+    Object remove(Object key){
+        int entry = find(key);
+        if (entry < 0) return null;
+        Object value = values[entry];
+        keys[entry] = REMOVED;
+        values[entry] = null;
+        size--;
+        return value;
+    }
+    LoxArray keys(){
+        LoxArray keys = new LoxArray();
+        for (int i = 0; i < count; i++){
+            if (this.keys[i] != REMOVED) keys.push(key(i));
+        }
+        return keys;
+    }
+    LoxArray values(){
+        LoxArray values = new LoxArray();
+        for (int i = 0; i < count; i++){
+            if (keys[i] != REMOVED) values.push(this.values[i]);
+        }
+        return values;
+    }
+
+    private int find(Object key){
+        int mask = index.length - 1;
+        if (key instanceof Double){
+            long bits = Double.doubleToLongBits((double)key);
+            int hash = hash(bits);
+            for (int slot = hash >>> shift; ; slot = (slot + 1) & mask){
+                int entry = index[slot] - 1;
+                if (entry < 0) return -1;
+                if (hashes[entry] == hash && keys[entry] == NUMBER && numbers[entry] == bits){
+                    return entry;
+                }
+            }
+        }
+        int hash = hash(key);
+        for (int slot = hash >>> shift; ; slot = (slot + 1) & mask){
+            int entry = index[slot] - 1;
+            if (entry < 0) return -1;
+            Object other = keys[entry];
+            //interned strings that are equal are the same object
+            if (hashes[entry] == hash && (other == key ||
+                    other != NUMBER && other != REMOVED && key.equals(other))){
+                return entry;
+            }
+        }
+    }
+    private void insert(int hash, int entry){
+        int mask = index.length - 1;
+        int slot = hash >>> shift;
+        while (index[slot] != 0) slot = (slot + 1) & mask;
+        index[slot] = entry + 1;
+    }
+    //makes room for one more entry: drops removed entries, and doubles
+    //the capacity unless that freed at least half of it
+    private void rebuild(){
+        int capacity = size > keys.length / 2 ? keys.length * 2 : keys.length;
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        long[] oldNumbers = numbers;
+        Object[] oldValues = values;
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        numbers = new long[capacity];
+        values = new Object[capacity];
+        index = new int[capacity * 2];
+        shift = shift(index.length);
+        int live = 0;
+        for (int i = 0; i < count; i++){
+            if (oldKeys[i] == REMOVED) continue;
+            hashes[live] = oldHashes[i];
+            keys[live] = oldKeys[i];
+            numbers[live] = oldNumbers[i];
+            values[live] = oldValues[i];
+            insert(hashes[live], live);
+            live++;
+        }
+        count = live;
+    }
+
+    private Object key(int entry){
+        return keys[entry] == NUMBER ? (Object)Double.longBitsToDouble(numbers[entry]) : keys[entry];
+    }
+    private static Object checkKey(Object key){
+        if (key == null) throw new RuntimeError(null, "Map keys can't be nil.");
+        return key;
+    }
+    //Fibonacci hashing, the slot comes from the well mixed top bits
+    private static int hash(long bits){
+        return (int)((bits * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+    private static int hash(Object key){
+        if (key instanceof Double) return hash(Double.doubleToLongBits((double)key));
+        return key.hashCode() * 0x9E3779B9;
+    }
+    private static int shift(int length){
+        return Integer.numberOfLeadingZeros(length) + 1;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder builder = new StringBuilder("{");
+        boolean first = true;
+        for (int i = 0; i < count; i++){
+            if (keys[i] == REMOVED) continue;
+            if (!first) builder.append(", ");
+            first = false;
+            append(builder, key(i));
+            builder.append(": ");
+            append(builder, values[i]);
+        }
+        return builder.append("}").toString();
+    }
+    private static void append(StringBuilder builder, Object value){
+        if (value instanceof Double){
+            NumberFormatter.append(builder, (double)value);
+        }else{
+            builder.append(Interpreter.stringify(value));
+        }
+    }
+}
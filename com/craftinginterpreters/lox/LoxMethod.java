@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox;
+
+//What a LoxClass holds for each method, a LoxFunction or a FlatFunction
+interface LoxMethod extends LoxCallable {
+    //the method with 'this' bound to instance
+    LoxMethod bind(LoxInstance instance);
+}
@@ -0,0 +1,6 @@
+package com.craftinginterpreters.lox;
+
+//Built-in objects (arrays, channels...) that expose methods through '.'
+interface LoxNative {
+    Object get(Token name);
+}
@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class LoxNativeFunction implements LoxCallable {
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+    private final int arity;
+    private final Body body;
+
+    LoxNativeFunction(int arity, Body body){
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity(){
+        return arity;
+    }
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments){
+        return body.call(interpreter, arguments);
+    }
+    @Override
+    public String toString(){
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//A function running concurrently on its own interpreter, created by spawn(fn)
+class LoxTask implements LoxNative {
+    private static final ExecutorService executor = createExecutor();
+    private final Future<Object> result;
+
+    LoxTask(Interpreter parent, LoxCallable function){
+        //each task gets its own interpreter (and so its own current environment),
+        //only the globals are shared with the rest of the program
+        Interpreter interpreter = new Interpreter(parent);
+        //errors go to whoever spawned the task, not to the pool thread
+        Session session = Lox.session();
+        result = executor.submit(() -> {
+            Lox.enter(session);
+            try{
+                return function.call(interpreter, new ArrayList<>());
+            }catch (RuntimeError error){
+                Lox.runtimeError(error);
+                return null;
+            }finally{
+                Lox.enter(null);
+            }
+        });
+    }
+
+    @Override
+    public Object get(Token name){
+        if (name.lexeme.equals("join")){
+            return new LoxNativeFunction(0, (interpreter, arguments) -> {
+                try{
+                    return result.get();
+                }catch (InterruptedException error){
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError(name, "Interrupted while joining task.");
+                }catch (ExecutionException error){
+                    throw new RuntimeError(name, "Task failed: " + error.getCause());
+                }
+            });
+        }
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    private static ExecutorService createExecutor(){
+        //virtual threads (Java 21+) let thousands of blocked tasks share a
+        //handful of carrier threads, older JVMs fall back to a thread pool
+        try{
+            return (ExecutorService)Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch (ReflectiveOperationException error){
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "lox-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public String toString(){
+        return "<task>";
+    }
+}
@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Bounded LRU cache of results for one pure function, keyed by its arguments
+class MemoCache {
+    //marks a miss, since nil is a valid cached result
+    static final Object MISSING = new Object();
+
+    final String name;
+    private final Map<List<Object>, Object> results;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    MemoCache(String name, int capacity){
+        this.name = name;
+        //access order turns the LinkedHashMap into an LRU list
+        this.results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest){
+                if (size() <= capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    synchronized Object get(List<Object> arguments){
+        Object result = results.getOrDefault(arguments, MISSING);
+        if (result == MISSING){
+            misses++;
+        }else{
+            hits++;
+        }
+        return result;
+    }
+    synchronized void put(List<Object> arguments, Object result){
+        results.put(arguments, result);
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "memo " + name + ": " + hits + " hits, " + misses + " misses, " +
+            evictions + " evictions, " + results.size() + " entries";
+    }
+}
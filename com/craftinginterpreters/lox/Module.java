@@ -0,0 +1,177 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+A file brought in by
+    import "lib/strings.lox";
+The path is relative to the importing file. Its top level runs in the
+global scope of the importing interpreter, once: importing it again, or
+through a cycle, does nothing. Imports only appear at the top level.
+
+The front end (Scanner, Parser, Resolver) runs once per module and
+process. Modules are cached by absolute path and modification time, a
+file that changed is loaded again. A module starts loading on a loader
+thread as soon as an import of it is linked, and once parsed it starts
+loading its own imports, so independent modules are scanned, parsed
+and resolved in parallel while link() waits for the whole import graph.
+Errors in a module are reported by link(), before anything runs.
+*/
+class Module {
+    private static final Map<Path, Module> cache = new ConcurrentHashMap<>();
+    private static final ExecutorService loaders;
+    static{
+        AtomicInteger count = new AtomicInteger();
+        loaders = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "lox-module-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //a module after the front end, errors is null when there were none
+    private static final class Code {
+        final List<Stmt> statements;
+        final Map<Expr, Integer> locals;
+        final String errors;
+        Code(List<Stmt> statements, Map<Expr, Integer> locals, String errors){
+            this.statements = statements;
+            this.locals = locals;
+            this.errors = errors;
+        }
+    }
+
+    final Path path;
+    private final long modified;
+    private final CompletableFuture<Code> code;
+
+    private Module(Path path, long modified){
+        this.path = path;
+        this.modified = modified;
+        this.code = CompletableFuture.supplyAsync(this::load, loaders);
+    }
+    private Module(Path path){
+        this.path = path;
+        this.modified = -1;
+        this.code = new CompletableFuture<>();
+    }
+
+    //the module for a file, loading it unless the cached one is up to date
+    static Module of(Path file){
+        Path path = file.toAbsolutePath().normalize();
+        long modified = modified(path);
+        return cache.compute(path, (key, module) ->
+            module != null && module.modified == modified ? module : new Module(key, modified));
+    }
+    //a module whose tree is read back by AstReader, handed over by complete()
+    //once read, as it may import itself
+    static Module pending(Path path){
+        return new Module(path);
+    }
+    void complete(List<Stmt> statements, Map<Expr, Integer> locals){
+        code.complete(new Code(statements, locals, null));
+    }
+    private static long modified(Path path){
+        try{
+            return Files.getLastModifiedTime(path).toMillis();
+        }catch (IOException error){
+            //load() reports the missing file
+            return -1;
+        }
+    }
+
+    //points the imports of a program (or module) in directory at their
+    //modules and waits for everything they import to load, errors go to
+    //the current session
+    static void link(List<Stmt> statements, Path directory){
+        Session session = Lox.session();
+        Set<Module> linked = new HashSet<>();
+        Deque<Module> waiting = new ArrayDeque<>(start(statements, directory));
+        while (!waiting.isEmpty()){
+            Module module = waiting.pop();
+            if (!linked.add(module)) continue;
+            Code code = module.code.join();
+            if (code.errors != null){
+                session.output.flush();
+                session.err.print("In " + module.path + ":\n" + code.errors);
+                session.hadError = true;
+            }
+            //a cached module's own imports may have changed on disk since
+            waiting.addAll(start(code.statements, module.path.getParent()));
+        }
+    }
+    private static List<Module> start(List<Stmt> statements, Path directory){
+        List<Module> imports = new ArrayList<>();
+        for (Stmt statement : statements){
+            if (statement instanceof Stmt.Import){
+                Stmt.Import stmt = (Stmt.Import)statement;
+                stmt.module = of(directory.resolve((String)stmt.path.literal));
+                imports.add(stmt.module);
+            }
+        }
+        return imports;
+    }
+
+    //the module's statements with their variables resolved in interpreter, for AstWriter
+    List<Stmt> resolveInto(Interpreter interpreter){
+        Code code = this.code.join();
+        interpreter.locals().putAll(code.locals);
+        return code.statements;
+    }
+
+    //runs the module's top level in the interpreter's globals, unless it already has
+    void run(Interpreter interpreter, Token keyword){
+        if (!interpreter.firstImport(path)) return;
+        Code code = this.code.join();
+        if (code.errors != null){
+            //only when the import wasn't linked, eg. in a program read back by AstReader
+            throw new RuntimeError(keyword, "Can't import " + path + ":\n" + code.errors.trim());
+        }
+        interpreter.executeModule(code.statements, code.locals);
+    }
+
+    private Code load(){
+        String source;
+        try{
+            source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        }catch (IOException error){
+            return new Code(List.of(), Map.of(), "Can't read module.\n");
+        }
+        //the front end reports to the session of its thread
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Session session = new Session(
+            new OutputBuffer(Channels.newChannel(OutputStream.nullOutputStream()), 64),
+            new PrintStream(errors, true, Charset.defaultCharset()));
+        Lox.enter(session);
+        try{
+            Interpreter resolved = new Interpreter(session.output);
+            List<Stmt> statements = Lox.parse(resolved, source);
+            if (session.hadError){
+                return new Code(List.of(), Map.of(), errors.toString(Charset.defaultCharset()));
+            }
+            start(statements, path.getParent());
+            return new Code(statements, resolved.locals(), null);
+        }finally{
+            Lox.enter(null);
+        }
+    }
+}
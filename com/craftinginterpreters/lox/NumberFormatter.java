@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+//How Lox prints numbers: Double.toString without a trailing ".0". Most
+//numbers a script prints are counters and indexes, integral values that
+//Double.toString would print without an exponent (below 1e7), so those
+//are written digit by digit here instead of building a string and then
+//cutting it. Everything else still goes through Double.toString, whose
+//output on this JDK is what scripts already rely on.
+class NumberFormatter {
+    private static final double PLAIN_LIMIT = 1e7;
+    //"-9999999"
+    static final int MAX_PLAIN_LENGTH = 8;
+
+    static boolean isPlainInteger(double value){
+        return value > -PLAIN_LIMIT && value < PLAIN_LIMIT && value == (int)value;
+    }
+
+    static String format(double value){
+        if (!isPlainInteger(value)) return Double.toString(value);
+        char[] chars = new char[MAX_PLAIN_LENGTH];
+        int start = digits(value, chars);
+        return new String(chars, start, chars.length - start);
+    }
+    static void append(StringBuilder builder, double value){
+        if (!isPlainInteger(value)){
+            builder.append(Double.toString(value));
+            return;
+        }
+        char[] chars = new char[MAX_PLAIN_LENGTH];
+        int start = digits(value, chars);
+        builder.append(chars, start, chars.length - start);
+    }
+
+    //writes a plain integer to the end of chars, returns where it starts
+    static int digits(double value, char[] chars){
+        int n = (int)value;
+        int i = chars.length;
+        //-0.0 prints as "-0"
+        boolean negative = Double.doubleToRawLongBits(value) < 0;
+        if (negative) n = -n;
+        do{
+            chars[--i] = (char)('0' + n % 10);
+            n /= 10;
+        }while (n != 0);
+        if (negative) chars[--i] = '-';
+        return i;
+    }
+}
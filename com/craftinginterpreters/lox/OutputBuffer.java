@@ -0,0 +1,128 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+//Output for 'print'. Text is encoded straight into one reusable byte buffer
+//and handed to the channel in large writes instead of going through the
+//synchronized, autoflushing System.out on every line.
+class OutputBuffer {
+    enum FlushPolicy {
+        //write out only when the buffer is full (and on flush()/exit)
+        ON_SIZE,
+        //write out after every line, for the interactive prompt
+        ON_NEWLINE
+    }
+
+    static final OutputBuffer stdout = new OutputBuffer(
+        new FileOutputStream(FileDescriptor.out).getChannel(),
+        Integer.getInteger("lox.outputBuffer", 64 * 1024));
+    static{
+        //last chance for anything still buffered, eg. after an uncaught exception
+        Runtime.getRuntime().addShutdownHook(new Thread(stdout::flush));
+    }
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private final boolean ascii;
+    private FlushPolicy policy = FlushPolicy.ON_SIZE;
+    //digits of a printed number, see println(double)
+    private final char[] digits = new char[NumberFormatter.MAX_PLAIN_LENGTH];
+
+    OutputBuffer(WritableByteChannel channel, int capacity){
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, 64));
+        Charset charset = Charset.defaultCharset();
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        //these encode chars below 0x80 as the same single byte
+        this.ascii = charset.equals(StandardCharsets.UTF_8) ||
+            charset.equals(StandardCharsets.US_ASCII) ||
+            charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    synchronized void setFlushPolicy(FlushPolicy policy){
+        this.policy = policy;
+        flush();
+    }
+
+    synchronized void println(String text){
+        write(text);
+        put((byte)'\n');
+        if (policy == FlushPolicy.ON_NEWLINE) flush();
+    }
+
+    //text as it is, for files a script writes
+    synchronized void print(String text){
+        write(text);
+        if (policy == FlushPolicy.ON_NEWLINE && text.indexOf('\n') >= 0) flush();
+    }
+
+    //a number, as Interpreter.stringify would print it but without the string
+    synchronized void println(double value){
+        if (!ascii || !NumberFormatter.isPlainInteger(value)){
+            println(NumberFormatter.format(value));
+            return;
+        }
+        for (int i = NumberFormatter.digits(value, digits); i < digits.length; i++){
+            put((byte)digits[i]);
+        }
+        put((byte)'\n');
+        if (policy == FlushPolicy.ON_NEWLINE) flush();
+    }
+
+    synchronized void flush(){
+        buffer.flip();
+        try{
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }catch (IOException error){
+            throw new UncheckedIOException(error);
+        }finally{
+            buffer.clear();
+        }
+    }
+
+    private void write(String text){
+        int length = text.length();
+        int i = 0;
+        if (ascii){
+            //fast path, copy chars directly while they are plain ASCII
+            for (; i < length; i++){
+                char c = text.charAt(i);
+                if (c >= 0x80) break;
+                if (!buffer.hasRemaining()) flush();
+                buffer.put((byte)c);
+            }
+            if (i == length) return;
+        }
+        encode(CharBuffer.wrap(text, i, length));
+    }
+
+    private void encode(CharBuffer chars){
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()){
+            flush();
+        }
+        while (encoder.flush(buffer).isOverflow()){
+            flush();
+        }
+    }
+
+    private void put(byte b){
+        if (!buffer.hasRemaining()) flush();
+        buffer.put(b);
+    }
+}
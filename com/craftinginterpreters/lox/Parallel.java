@@ -0,0 +1,174 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/*
+Natives for applying a function to a whole array on every core:
+    fun square(x){ return x * x; }
+    var squares = parallelMap(square, numbers);
+    fun add(a, b){ return a + b; }
+    var total = parallelReduce(add, 0, squares);
+The array is split into ranges that run on a ForkJoinPool. Each thread
+that runs a range gets an Interpreter of its own for the whole call,
+which shares the globals but can't assign them. Arrays shorter than -Dlox.parallelThreshold (1024 by default)
+run on the calling thread, where splitting costs more than it saves.
+
+parallelReduce folds every range starting from init and then folds the
+partial results, in order. So fn has to be associative and init has to
+leave values unchanged (0 for +, 1 for *).
+*/
+class Parallel {
+    private static final ForkJoinPool pool = new ForkJoinPool(
+        Integer.getInteger("lox.parallelism", Runtime.getRuntime().availableProcessors()));
+    private static final int threshold = Integer.getInteger("lox.parallelThreshold", 1024);
+    //ranges per worker, so workers that finish early can steal
+    private static final int RANGES_PER_WORKER = 8;
+
+    static LoxArray map(Interpreter interpreter, Object function, Object array){
+        LoxCallable callable = function(function, 1, "parallelMap");
+        LoxArray in = array(array, "parallelMap");
+        int size = in.length();
+        interpreter.allocate(Quota.INSTANCE_SIZE + size * Quota.SLOT_SIZE,
+                             AllocationProfiler.ARRAY, null);
+        Object[] out = new Object[size];
+        Work work = new Work(interpreter, callable, in);
+        MapRange map = new MapRange(work, out, 0, size);
+        if (work.parallel){
+            pool.invoke(map);
+        }else{
+            map.compute();
+        }
+        LoxArray result = new LoxArray();
+        for (Object value : out){
+            result.push(value);
+        }
+        return result;
+    }
+    static Object reduce(Interpreter interpreter, Object function, Object init, Object array){
+        LoxCallable callable = function(function, 2, "parallelReduce");
+        LoxArray in = array(array, "parallelReduce");
+        Work work = new Work(interpreter, callable, in);
+        ReduceRange reduce = new ReduceRange(work, init, 0, in.length());
+        return work.parallel ? pool.invoke(reduce) : reduce.compute();
+    }
+
+    private static LoxCallable function(Object function, int arity, String name){
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != arity){
+            throw new RuntimeError(null, name + " needs a function with " + arity +
+                        (arity == 1 ? " parameter." : " parameters."));
+        }
+        return (LoxCallable)function;
+    }
+    private static LoxArray array(Object array, String name){
+        if (!(array instanceof LoxArray)){
+            throw new RuntimeError(null, name + " needs an array.");
+        }
+        return (LoxArray)array;
+    }
+
+    //what every range of one call shares
+    private static final class Work {
+        final Interpreter parent;
+        final LoxCallable function;
+        final LoxArray in;
+        final Session session;
+        final boolean parallel;
+        //longest range run without splitting it
+        final int range;
+        //per thread, dropped with the Work when the call returns
+        private final Map<Thread, Interpreter> workers = new ConcurrentHashMap<>();
+        Work(Interpreter parent, LoxCallable function, LoxArray in){
+            this.parent = parent;
+            this.function = function;
+            this.in = in;
+            this.session = Lox.session();
+            this.parallel = in.length() >= threshold;
+            this.range = parallel ?
+                Math.max(1, in.length() / (pool.getParallelism() * RANGES_PER_WORKER)) :
+                Integer.MAX_VALUE;
+        }
+        //the interpreter for this thread's ranges, reporting to the
+        //caller's session. A range stolen while joining runs inside the
+        //one waiting, nested on the same stack like any other call.
+        Interpreter worker(){
+            Lox.enter(session);
+            return workers.computeIfAbsent(Thread.currentThread(),
+                                           thread -> new Interpreter(parent, true));
+        }
+        Object call(Interpreter worker, Object... arguments){
+            //calls between Lox functions skip building an argument list
+            if (function instanceof LoxFunction){
+                return ((LoxFunction)function).call(worker, arguments);
+            }
+            return function.call(worker, Arrays.asList(arguments));
+        }
+    }
+
+    private static final class MapRange extends RecursiveAction {
+        private final Work work;
+        private final Object[] out;
+        private final int from, to;
+        MapRange(Work work, Object[] out, int from, int to){
+            this.work = work;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+        @Override
+        protected void compute(){
+            if (to - from > work.range){
+                int middle = (from + to) >>> 1;
+                invokeAll(new MapRange(work, out, from, middle), new MapRange(work, out, middle, to));
+                return;
+            }
+            Session previous = Lox.session();
+            Interpreter worker = work.worker();
+            try{
+                for (int i = from; i < to; i++){
+                    out[i] = work.call(worker, work.in.get(i));
+                }
+            }finally{
+                Lox.enter(previous);
+            }
+        }
+    }
+    private static final class ReduceRange extends RecursiveTask<Object> {
+        private final Work work;
+        private final Object init;
+        private final int from, to;
+        ReduceRange(Work work, Object init, int from, int to){
+            this.work = work;
+            this.init = init;
+            this.from = from;
+            this.to = to;
+        }
+        @Override
+        protected Object compute(){
+            ReduceRange left = null;
+            Object right = null;
+            if (to - from > work.range){
+                int middle = (from + to) >>> 1;
+                left = new ReduceRange(work, init, from, middle);
+                left.fork();
+                right = new ReduceRange(work, init, middle, to).compute();
+            }
+            Session previous = Lox.session();
+            Interpreter worker = work.worker();
+            try{
+                if (left != null) return work.call(worker, left.join(), right);
+                Object result = init;
+                for (int i = from; i < to; i++){
+                    result = work.call(worker, result, work.in.get(i));
+                }
+                return result;
+            }finally{
+                Lox.enter(previous);
+            }
+        }
+    }
+}
@@ -122,10 +122,18 @@ declaration    → classDecl
                | varDecl
                | statement ;
 
-classDecl      → "class" IDENTIFIER "{" function* "}" ;
+classDecl      → "class" IDENTIFIER ( "<" IDENTIFIER )?
+                 "{" function* "}" ;
 call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
+primary        → "true" | "false" | "nil" | "this"
+               | NUMBER | STRING | IDENTIFIER | "(" expression ")"
+               | "super" "." IDENTIFIER ;
 assignment     → ( call "." )? IDENTIFIER "=" assignment
                | logic_or ;
+-----------------
+The expression rules above are implemented as a Pratt parser: the
+precedence of every infix operator lives in the 'infixPrecedence' table
+and parsePrecedence() climbs it, see the Precedence enum.
 */
 
 
@@ -133,9 +141,17 @@ class Parser {
     private static class ParseError extends RuntimeException{}
     private final List<Token> tokens;
     private int current = 0;
+    //--lazy-parse, top-level function bodies are kept as a LazyBody
+    private final boolean lazy;
+    //blocks (and function bodies) the parser is in
+    private int depth = 0;
 
     Parser(List<Token> tokens){
+        this(tokens, false);
+    }
+    Parser(List<Token> tokens, boolean lazy){
         this.tokens = tokens;
+        this.lazy = lazy;
     }
     List<Stmt> parse(){
         List<Stmt> statements = new ArrayList<>();
@@ -149,6 +165,7 @@ class Parser {
             if (match(CLASS)) return classDeclaration();
             if (match(FUN)) return function("function");
             if (match(VAR)) return varDeclaration();
+            if (match(IMPORT)) return importDeclaration();
 
             return statement();
         }catch (ParseError error){
@@ -158,6 +175,11 @@ class Parser {
     }
     private Stmt classDeclaration(){
         Token name = consume(IDENTIFIER, "Expected class name.");
+        Expr.Variable superclass = null;
+        if (match(LESS)){
+            consume(IDENTIFIER, "Expected superclass name.");
+            superclass = new Expr.Variable(previous());
+        }
         consume(LEFT_BRACE, "Expected '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
@@ -166,7 +188,7 @@ class Parser {
         }
         consume(RIGHT_BRACE, "Expected '}' after class body.");
 
-        return new Stmt.Class(name, methods);
+        return new Stmt.Class(name, superclass, methods);
     }
     private Stmt statement(){
         if (match(PRINT)) return printStatement();
@@ -229,9 +251,10 @@ class Parser {
 
     }
     private Stmt printStatement(){
+        Token keyword = previous();
         Expr value = expression();
         consume(SEMICOLON, "Expected ';' after value dude.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
     }
     private Stmt returnStatement(){
         Token keyword = previous();
@@ -253,6 +276,12 @@ class Parser {
         consume(SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name,initializer);
     }
+    private Stmt importDeclaration(){
+        Token keyword = previous();
+        Token path = consume(STRING, "Expected module path after 'import'.");
+        consume(SEMICOLON, "Expected ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
     private Stmt whileStatement(){
         consume(LEFT_PAREN, "Expected '(' after 'while' dude.");
         Expr condition = expression();
@@ -281,111 +310,182 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(LEFT_BRACE, "Expected '{' before " + kind + " body.");
+        //a top-level function closes over nothing but globals, so its body
+        //can be parsed and resolved later on its own
+        if (lazy && depth == 0 && kind.equals("function")){
+            return new Stmt.Function(name, parameters, skipBody(name, parameters));
+        }
         List<Stmt> body = block();
         return new Stmt.Function(name, parameters, body);
     }
+    //finds the '}' that ends a function body, whose '{' was just consumed
+    private LazyBody skipBody(Token name, List<Token> parameters){
+        int start = current - 1;
+        int open = 1;
+        while (open > 0){
+            if (isAtEnd()) throw error(peek(), "Dude, totally Expected a '}' after block.");
+            TokenType type = advance().type;
+            if (type == LEFT_BRACE) open++;
+            if (type == RIGHT_BRACE) open--;
+        }
+        List<Token> body = new ArrayList<>(tokens.subList(start, current));
+        body.add(new Token(EOF, "", null, previous().line));
+        return new LazyBody(name, parameters, body);
+    }
+    //the tokens of a LazyBody, from its '{'
+    List<Stmt> body(){
+        try{
+            consume(LEFT_BRACE, "Expected '{' before function body.");
+            return block();
+        }catch (ParseError error){
+            return new ArrayList<>();
+        }
+    }
     private List<Stmt> block(){
         List<Stmt> statements = new ArrayList<>();
-
-        while (!check(RIGHT_BRACE) && !isAtEnd()){
-            statements.add(declaration());
+        depth++;
+        try{
+            while (!check(RIGHT_BRACE) && !isAtEnd()){
+                statements.add(declaration());
+            }
+        }finally{
+            depth--;
         }
 
         consume(RIGHT_BRACE, "Dude, totally Expected a '}' after block.");
         return statements;
     }
-    private Expr expression(){
-        return assignment();
-    }
-    private Expr assignment(){
-        Expr expr = or();
-
-        if (match(EQUAL)){
-            Token equals = previous();
-            Expr value = assignment();
-            if (expr instanceof Expr.Variable){
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            }else if (expr instanceof Expr.Get){
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-            error(equals, "My-Dude, Invalid assignment target.");
+    //Expressions are parsed Pratt style: each operator token has a binding
+    //precedence in the table below, so an operand costs one call to
+    //parsePrecedence() instead of a trip through every grammar level.
+    private enum Precedence {
+        NONE,
+        ASSIGNMENT, // =
+        OR,         // or
+        AND,        // and
+        EQUALITY,   // == !=
+        COMPARISON, // < > <= >=
+        TERM,       // + -
+        FACTOR,     // * /
+        UNARY,      // ! -
+        CALL,       // . ()
+        PRIMARY;
+
+        private static final Precedence[] levels = values();
+
+        //operand precedence for the right side of a left-associative operator
+        Precedence next(){
+            return levels[ordinal() + 1];
         }
-        return expr;
     }
-    private Expr or(){
-        Expr expr = and();
-        while(match(OR)){
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
+    //precedence of each token when it follows an operand, NONE ends the expression
+    private static final Precedence[] infixPrecedence =
+        new Precedence[TokenType.values().length];
+    static {
+        Arrays.fill(infixPrecedence, Precedence.NONE);
+        infixPrecedence[EQUAL.ordinal()]         = Precedence.ASSIGNMENT;
+        infixPrecedence[OR.ordinal()]            = Precedence.OR;
+        infixPrecedence[AND.ordinal()]           = Precedence.AND;
+        infixPrecedence[BANG_EQUAL.ordinal()]    = Precedence.EQUALITY;
+        infixPrecedence[EQUAL_EQUAL.ordinal()]   = Precedence.EQUALITY;
+        infixPrecedence[GREATER.ordinal()]       = Precedence.COMPARISON;
+        infixPrecedence[GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        infixPrecedence[LESS.ordinal()]          = Precedence.COMPARISON;
+        infixPrecedence[LESS_EQUAL.ordinal()]    = Precedence.COMPARISON;
+        infixPrecedence[MINUS.ordinal()]         = Precedence.TERM;
+        infixPrecedence[PLUS.ordinal()]          = Precedence.TERM;
+        infixPrecedence[SLASH.ordinal()]         = Precedence.FACTOR;
+        infixPrecedence[STAR.ordinal()]          = Precedence.FACTOR;
+        infixPrecedence[LEFT_PAREN.ordinal()]    = Precedence.CALL;
+        infixPrecedence[DOT.ordinal()]           = Precedence.CALL;
     }
-    private Expr and(){
-        Expr expr = equality();
-
-        while (match(AND)){
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        return expr;
-    }
-    private Expr equality(){
-        Expr expr = comparision();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)){
-            Token operator = previous();
-            Expr right = comparision();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr expression(){
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
-    private Expr comparision(){
-        Expr expr = term();
+    //parses an expression made of operators binding at least as tight as 'precedence'
+    private Expr parsePrecedence(Precedence precedence){
+        Expr expr = prefix();
 
-        while(match(GREATER,GREATER_EQUAL, LESS, LESS_EQUAL)){
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+        while (true){
+            Precedence infix = infixPrecedence[peek().type.ordinal()];
+            if (infix.ordinal() < precedence.ordinal()) break;
+            expr = infix(expr, advance(), infix);
         }
-
         return expr;
     }
-    //Addition/Subtraction
-    private Expr term(){
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)){
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+    //literals, variables, this, super, groupings and unary operators
+    private Expr prefix(){
+        Token token = peek();
+        switch (token.type){
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(token.literal);
+            case IDENTIFIER:
+                advance();
+                return new Expr.Variable(token);
+            case THIS:
+                advance();
+                return new Expr.This(token);
+            case SUPER:{
+                advance();
+                consume(DOT, "Expect '.' after 'super'.");
+                Token method = consume(IDENTIFIER, "Expect superclass method name.");
+                return new Expr.Super(token, method);
+            }
+            case LEFT_PAREN:{
+                advance();
+                Expr expr = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression, my-dude.");
+                return new Expr.Grouping(expr);
+            }
+            case BANG:
+            case MINUS:{
+                advance();
+                Expr right = parsePrecedence(Precedence.UNARY);
+                return new Expr.Unary(token, right);
+            }
         }
-
-        return expr;
-    }
-    //Multiplication/Division
-    private Expr factor(){
-        Expr expr = unary();
-
-        while (match(SLASH,STAR)){
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+        throw error(token, "Expect expression.");
+    }
+    //operators that follow an operand, 'operator' has already been consumed
+    private Expr infix(Expr left, Token operator, Precedence precedence){
+        switch (operator.type){
+            case EQUAL:
+                return assignment(left, operator);
+            case OR:
+            case AND:
+                return new Expr.Logical(left, operator, parsePrecedence(precedence.next()));
+            case LEFT_PAREN:
+                return finishCall(left);
+            case DOT:{
+                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+                return new Expr.Get(left, name);
+            }
         }
-
-        return expr;
-    }
-    private Expr unary(){
-        if (match(BANG, MINUS)){
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
+        return new Expr.Binary(left, operator, parsePrecedence(precedence.next()));
+    }
+    private Expr assignment(Expr target, Token equals){
+        //right-associative, a = b = c assigns c to b first
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
+        if (target instanceof Expr.Variable){
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
+        }else if (target instanceof Expr.Get){
+            Expr.Get get = (Expr.Get)target;
+            return new Expr.Set(get.object, get.name, value);
         }
-        return call();
+        error(equals, "My-Dude, Invalid assignment target.");
+        return target;
     }
     private Expr finishCall(Expr callee){
         List<Expr> arguments = new ArrayList<>();
@@ -400,46 +500,10 @@ class Parser {
         Token paren = consume(RIGHT_PAREN, "Expected ')' after argument.");
         return new Expr.Call(callee, paren, arguments);
     }
-    private Expr call(){
-        Expr expr = primary();
-
-        while (true){
-            if (match(LEFT_PAREN)){
-                expr = finishCall(expr);
-            }else if (match(DOT)){
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            }else{
-                break;
-            }
-        }
-        return expr;
-    }
-    private Expr primary(){
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)){
-            return new Expr.Literal(previous().literal);
-        }
-        if (match(IDENTIFIER)){
-            return new Expr.Variable(previous());
-        }
-
-        if (match(LEFT_PAREN)){
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression, my-dude.");
-            return new Expr.Grouping(expr);
-        }
-        throw error(peek(), "Expect expression.");
-    }
-    private boolean match(TokenType... types){
-        for (TokenType type : types){
-            if (check(type)){
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type){
+        if (check(type)){
+            advance();
+            return true;
         }
         return false;
     }
@@ -462,6 +526,7 @@ class Parser {
                 case CLASS:
                 case FUN:
                 case VAR:
+                case IMPORT:
                 case FOR:
                 case IF:
                 case WHILE:
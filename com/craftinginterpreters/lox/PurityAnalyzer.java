@@ -0,0 +1,264 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+Finds functions whose result depends only on their arguments so the
+interpreter can memoize them. A function is pure when its body:
+  - doesn't print, set fields, read fields, declare classes or closures
+  - only assigns variables declared inside the function
+  - only reads its own variables or top-level functions that are never
+    reassigned or redeclared
+  - only calls such top-level functions, and those are pure too
+Runs after the Resolver, whose results tell locals from globals.
+*/
+class PurityAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
+    private final Interpreter interpreter;
+    private final Map<String, Stmt.Function> globalFunctions = new HashMap<>();
+    //global names that are assigned or declared more than once
+    private final Set<String> unstable = new HashSet<>();
+    //every function that passed the local checks, with the globals it uses
+    private final Map<Stmt.Function, Set<String>> candidates = new HashMap<>();
+    //an imported module may declare or assign any global
+    private boolean imports = false;
+
+    //state for the function body being walked
+    private Stmt.Function current = null;
+    private boolean pure;
+    private int scopeDepth;
+    private Set<String> uses;
+
+    PurityAnalyzer(Interpreter interpreter){
+        this.interpreter = interpreter;
+    }
+
+    void analyze(List<Stmt> statements){
+        Set<String> declared = new HashSet<>();
+        for (Stmt statement : statements){
+            Token name = null;
+            if (statement instanceof Stmt.Function){
+                name = ((Stmt.Function)statement).name;
+                globalFunctions.put(name.lexeme, (Stmt.Function)statement);
+            }else if (statement instanceof Stmt.Var){
+                name = ((Stmt.Var)statement).name;
+            }else if (statement instanceof Stmt.Class){
+                name = ((Stmt.Class)statement).name;
+            }
+            if (name != null && !declared.add(name.lexeme)){
+                unstable.add(name.lexeme);
+            }
+        }
+        for (Stmt statement : statements){
+            analyze(statement);
+        }
+
+        //drop functions that use impure or unstable globals until nothing changes
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            for (Stmt.Function function : new ArrayList<>(candidates.keySet())){
+                for (String name : candidates.get(function)){
+                    if (imports || unstable.contains(name) ||
+                            !candidates.containsKey(globalFunctions.get(name))){
+                        candidates.remove(function);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (Stmt.Function function : candidates.keySet()){
+            interpreter.memoize(function);
+        }
+    }
+
+    private void analyze(Stmt stmt){
+        if (stmt != null) stmt.accept(this);
+    }
+    private void analyze(Expr expr){
+        if (expr != null) expr.accept(this);
+    }
+    private void analyzeAll(List<Stmt> statements){
+        for (Stmt statement : statements){
+            analyze(statement);
+        }
+    }
+    private void impure(){
+        pure = false;
+    }
+    //true when the resolved variable is declared inside the current function
+    private boolean isLocal(Expr expr){
+        Integer distance = interpreter.resolvedDepth(expr);
+        return current != null && distance != null && distance < scopeDepth;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        scopeDepth++;
+        analyzeAll(stmt.statements);
+        scopeDepth--;
+        return null;
+    }
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt){
+        impure();
+        //methods are walked for the globals they assign but never memoized
+        for (Stmt.Function method : stmt.methods){
+            visitFunctionStmt(method);
+            candidates.remove(method);
+        }
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        analyze(stmt.expression);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        //creating a closure is a side effect of the enclosing function
+        impure();
+
+        Stmt.Function enclosing = current;
+        boolean enclosingPure = pure;
+        int enclosingDepth = scopeDepth;
+        Set<String> enclosingUses = uses;
+
+        current = stmt;
+        pure = true;
+        //params and body share the function's scope
+        scopeDepth = 1;
+        uses = new HashSet<>();
+        analyzeAll(stmt.body);
+        if (pure) candidates.put(stmt, uses);
+
+        current = enclosing;
+        pure = enclosingPure;
+        scopeDepth = enclosingDepth;
+        uses = enclosingUses;
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        analyze(stmt.condition);
+        analyze(stmt.thenBranch);
+        analyze(stmt.elseBranch);
+        return null;
+    }
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt){
+        imports = true;
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        impure();
+        analyze(stmt.expression);
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        analyze(stmt.value);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        analyze(stmt.initializer);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        analyze(stmt.condition);
+        analyze(stmt.body);
+        return null;
+    }
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        analyze(expr.value);
+        if (interpreter.resolvedDepth(expr) == null){
+            unstable.add(expr.name.lexeme);
+        }
+        if (!isLocal(expr)) impure();
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        //only direct calls to top-level functions can be checked
+        if (!(expr.callee instanceof Expr.Variable) ||
+                interpreter.resolvedDepth(expr.callee) != null){
+            impure();
+        }
+        analyze(expr.callee);
+        for (Expr argument : expr.arguments){
+            analyze(argument);
+        }
+        return null;
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr){
+        //fields can change between calls
+        impure();
+        analyze(expr.object);
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        analyze(expr.expression);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        analyze(expr.left);
+        analyze(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitSetExpr(Expr.Set expr){
+        impure();
+        analyze(expr.object);
+        analyze(expr.value);
+        return null;
+    }
+    @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        //methods see the instance they're bound to
+        impure();
+        return null;
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        impure();
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        analyze(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        if (current == null || isLocal(expr)) return null;
+        if (interpreter.resolvedDepth(expr) == null){
+            uses.add(expr.name.lexeme);
+        }else{
+            //a local of some enclosing function
+            impure();
+        }
+        return null;
+    }
+}
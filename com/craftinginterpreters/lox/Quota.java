@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Limits for one run of an untrusted script:
+    jlox --max-steps 1000000 --timeout 500 --max-memory 64m script.lox
+A step is a loop iteration or a function call. Memory counts what the
+script allocates (environments, instances, strings, array slots, map
+entries), not what is still live, using the rough sizes below.
+
+Interpreters don't touch the shared counters on every step, they take
+steps and bytes in batches and only come back here (and look at the
+clock) when a batch is used up. Spawned tasks share the quota of the
+interpreter that started them. An AllocationProfiler samples at the end
+of each byte batch, so profiling asks for smaller ones.
+*/
+class Quota {
+    static final Quota unlimited = new Quota(0, 0, 0);
+
+    //approximate heap cost of what a script can allocate
+    static final int ENVIRONMENT_SIZE = 48;
+    static final int BINDING_SIZE = 32;
+    static final int INSTANCE_SIZE = 48;
+    static final int SLOT_SIZE = 8;
+    static final int CLOSURE_SIZE = 32;
+    //a key and value of a LoxMap, with their hash and index slots
+    static final int ENTRY_SIZE = 32;
+    static int stringSize(String string){
+        return 40 + string.length();
+    }
+
+    private static final int STEP_BATCH = 4096;
+    private static final int BYTE_BATCH = 64 * 1024;
+
+    private final long maxSteps;
+    private final long timeout;
+    private final long maxBytes;
+    private final long deadline;
+    private final int sampleBytes;
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    //a limit of 0 means none, the clock starts with the quota
+    Quota(long maxSteps, long timeoutMillis, long maxBytes){
+        this(maxSteps, timeoutMillis, maxBytes, 0);
+    }
+    //byte batches of about sampleBytes instead of BYTE_BATCH, for profiling
+    Quota(long maxSteps, long timeoutMillis, long maxBytes, int sampleBytes){
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.timeout = timeoutMillis;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.deadline = timeoutMillis > 0 ?
+            System.nanoTime() + timeoutMillis * 1_000_000 : Long.MAX_VALUE;
+        this.sampleBytes = sampleBytes;
+    }
+
+    //the next batch of steps for an interpreter that used up its last one
+    int takeSteps(){
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0){
+            throw new QuotaExceeded("Time limit of " + timeout + " ms exceeded.");
+        }
+        if (maxSteps == Long.MAX_VALUE) return STEP_BATCH;
+        long taken = steps.getAndAdd(STEP_BATCH);
+        if (taken >= maxSteps){
+            throw new QuotaExceeded("Step limit of " + maxSteps + " exceeded.");
+        }
+        return (int)Math.min(STEP_BATCH, maxSteps - taken);
+    }
+    //charges what an interpreter overdrew and hands it a new batch of bytes
+    int takeBytes(long overdrawn){
+        int batch = sampleBytes > 0 ?
+            sampleBytes / 2 + ThreadLocalRandom.current().nextInt(sampleBytes) + 1 : BYTE_BATCH;
+        if (maxBytes == Long.MAX_VALUE) return batch;
+        long used = bytes.addAndGet(overdrawn + batch) - batch;
+        if (used > maxBytes){
+            throw new QuotaExceeded("Memory limit of " + maxBytes + " bytes exceeded.");
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+//Raised when a run goes over its Quota. It has no token: it can happen
+//anywhere and is reported as is, callers must not pin it to a call site.
+class QuotaExceeded extends RuntimeError{
+    QuotaExceeded(String message){
+        super(null, "Quota exceeded: " + message);
+    }
+}
@@ -9,12 +9,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     private final Interpreter interpreter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
 
     Resolver(Interpreter interpreter){
         this.interpreter = interpreter;
     }
     private enum FunctionType{
-        NONE,FUNCTION
+        NONE,FUNCTION,INITIALIZER,METHOD
+    }
+    private enum ClassType{
+        NONE,CLASS,SUBCLASS
     }
     void resolve(List<Stmt> statements){
         for (Stmt statement: statements){
@@ -57,8 +61,41 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
     @Override
     public Void visitClassStmt(Stmt.Class stmt){
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
         declare(stmt.name);
         define(stmt.name);
+
+        if (stmt.superclass != null){
+            if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)){
+                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+            //the scope LoxClass methods close over for 'super'
+            beginScope();
+            scopes.peek().put("super", true);
+        }
+        //and the one LoxFunction.bind() adds for 'this'
+        beginScope();
+        scopes.peek().put("this", true);
+        for (Stmt.Function method : stmt.methods){
+            FunctionType type = method.name.lexeme.equals("init") ?
+                FunctionType.INITIALIZER : FunctionType.METHOD;
+            resolveFunction(method, type);
+        }
+        endScope();
+        if (stmt.superclass != null) endScope();
+
+        currentClass = enclosingClass;
+        return null;
+    }
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt){
+        //modules run in the global scope
+        if (!scopes.isEmpty()){
+            Lox.error(stmt.keyword, "Can only import at the top level.");
+        }
         return null;
     }
     @Override
@@ -73,16 +110,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         expr.accept(this);
     }
     private void resolveFunction(Stmt.Function function, FunctionType type){
+        if (function.body instanceof LazyBody && !((LazyBody)function.body).isParsed()){
+            //resolved by resolveBody() once it is parsed
+            ((LazyBody)function.body).resolveInto(interpreter);
+            return;
+        }
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        resolveScope(function.params, function.body);
+        currentFunction = enclosingFunction;
+    }
+    //the body of a top-level function, parsed after the rest of the program
+    void resolveBody(List<Token> params, List<Stmt> body){
+        currentFunction = FunctionType.FUNCTION;
+        resolveScope(params, body);
+    }
+    private void resolveScope(List<Token> params, List<Stmt> body){
         beginScope();
-        for (Token param : function.params){
+        for (Token param : params){
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
-        currentFunction = enclosingFunction;
     }
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt){
@@ -110,6 +160,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             Lox.error(stmt.keyword, "Can't return from top-level code.");
         }
         if (stmt.value != null){
+            if (currentFunction == FunctionType.INITIALIZER){
+                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+            }
             resolve(stmt.value);
         }
         return null;
@@ -178,6 +231,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         return null;
     }
     @Override
+    public Void visitSuperExpr(Expr.Super expr){
+        if (currentClass == ClassType.NONE){
+            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+        }else if (currentClass != ClassType.SUBCLASS){
+            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+        }
+        resolveLocal(expr, expr.keyword);
+        return null;
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr){
+        if (currentClass == ClassType.NONE){
+            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            return null;
+        }
+        resolveLocal(expr, expr.keyword);
+        return null;
+    }
+    @Override
     public Void visitUnaryExpr(Expr.Unary expr){
         resolve(expr.right);
         return null;
@@ -6,8 +6,16 @@ import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*; 
 
+//Turns source into tokens. Runs of whitespace, comments and the bodies
+//of strings, names and numbers are the bulk of most sources (generated
+//code is mostly comments and indentation), so whole runs are skipped in
+//tight loops with a table lookup per char, and the ends of comments and
+//strings are found with String.indexOf, which HotSpot compiles to SIMD
+//instructions comparing 16 or 32 chars at a time. Tokens that are always
+//spelled the same, and names seen before, reuse their lexeme.
 class Scanner {
         private final String source;
+        private final int length;
         private final List<Token> tokens = new ArrayList<>();
         private int start = 0;
         private int current = 0;
@@ -22,6 +30,7 @@ class Scanner {
             keywords.put("for",   FOR);
             keywords.put("fun",   FUN);
             keywords.put("if",    IF);
+            keywords.put("import",IMPORT);
             keywords.put("nil",   NIL);
             keywords.put("or",    OR);
             keywords.put("print", PRINT);
@@ -32,9 +41,39 @@ class Scanner {
             keywords.put("var",   VAR);
             keywords.put("while", WHILE);
         }
+        //what each ASCII char can be part of
+        private static final byte BLANK = 1, NAME = 2, DIGIT = 4;
+        private static final byte[] kinds = new byte[128];
+        static {
+            kinds[' '] = kinds['\r'] = kinds['\t'] = BLANK;
+            kinds['_'] = NAME;
+            for (char c = 'a'; c <= 'z'; c++) kinds[c] = NAME;
+            for (char c = 'A'; c <= 'Z'; c++) kinds[c] = NAME;
+            for (char c = '0'; c <= '9'; c++) kinds[c] = NAME | DIGIT;
+        }
+        //lexemes of the tokens that are always spelled the same
+        private static final String[] lexemes = new String[TokenType.values().length];
+        static {
+            String[] spelled = {"(", ")", "{", "}", ",", ".", "-", "+", ";", "/", "*",
+                                "!", "!=", "=", "==", ">", ">=", "<", "<="};
+            for (int i = 0; i < spelled.length; i++){
+                lexemes[LEFT_PAREN.ordinal() + i] = spelled[i];
+            }
+        }
+        //names and keywords met so far, found by the chars of a lexeme so
+        //a name used again costs no substring, keyword lookup or intern.
+        //Open addressing on String.hashCode, which identifier() computes
+        //while it scans
+        private String[] names = new String[256];
+        private TokenType[] nameTypes = new TokenType[256];
+        private int nameCount = 0;
 
         Scanner(String source){
             this.source = source;
+            this.length = source.length();
+            for (Map.Entry<String, TokenType> keyword : keywords.entrySet()){
+                addName(keyword.getKey(), keyword.getValue());
+            }
         }
 
         private char advance(){
@@ -42,7 +81,7 @@ class Scanner {
         }
 
         private void addToken(TokenType type){
-            addToken(type, null);
+            tokens.add(new Token(type, lexemes[type.ordinal()], null, line));
         }
 
         private void addToken(TokenType type, Object literal){
@@ -61,7 +100,7 @@ class Scanner {
         }
 
         private boolean isAtEnd(){
-            return current >= source.length();
+            return current >= length;
         }
 
         private void scanToken(){
@@ -95,7 +134,8 @@ class Scanner {
                 case '/':
                     if (match('/')){
                         //A comment goes until end of line.
-                        while(peek() != '\n' && !isAtEnd()) advance();
+                        int end = source.indexOf('\n', current);
+                        current = end < 0 ? length : end;
                     }
                     else{
                         addToken(SLASH);
@@ -105,10 +145,9 @@ class Scanner {
                 case ' ':
                 case '\r':
                 case '\t':
-                    //Ingore whitespaces
-                    break;
                 case '\n':
-                    line++;
+                    //Ingore whitespaces, the whole run of them
+                    whitespace(c);
                     break;
                 
                 case '"': string(); break;
@@ -125,38 +164,101 @@ class Scanner {
                     break;
             }
         }
+        private void whitespace(char first){
+            if (first == '\n') line++;
+            while (current < length){
+                char c = source.charAt(current);
+                if (c == '\n'){
+                    line++;
+                }else if (c >= 128 || kinds[c] != BLANK){
+                    return;
+                }
+                current++;
+            }
+        }
         private void identifier(){
-            while (isAlphaNumeric(peek())) advance();
-            String text = source.substring(start,current);
-            TokenType type = keywords.get(text);
-            if (type == null) type = IDENTIFIER;
-            addToken(type);
+            int hash = source.charAt(start);
+            int i = current;
+            while (i < length){
+                char c = source.charAt(i);
+                if (c >= 128 || (kinds[c] & NAME) == 0) break;
+                hash = 31 * hash + c;
+                i++;
+            }
+            current = i;
+            int size = current - start;
+            int mask = names.length - 1;
+            for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask){
+                String name = names[slot];
+                if (name == null) break;
+                if (name.hashCode() == hash && name.length() == size &&
+                        source.regionMatches(start, name, 0, size)){
+                    tokens.add(new Token(nameTypes[slot], name, null, line));
+                    return;
+                }
+            }
+            //names end up as keys of environments and fields
+            String name = StringTable.intern(source.substring(start, current));
+            addName(name, IDENTIFIER);
+            tokens.add(new Token(IDENTIFIER, name, null, line));
+        }
+        private void addName(String name, TokenType type){
+            if (++nameCount * 2 > names.length){
+                String[] oldNames = names;
+                TokenType[] oldTypes = nameTypes;
+                names = new String[oldNames.length * 2];
+                nameTypes = new TokenType[oldNames.length * 2];
+                for (int i = 0; i < oldNames.length; i++){
+                    if (oldNames[i] != null) putName(oldNames[i], oldTypes[i]);
+                }
+            }
+            putName(name, type);
+        }
+        private void putName(String name, TokenType type){
+            int mask = names.length - 1;
+            int slot = spread(name.hashCode()) & mask;
+            while (names[slot] != null) slot = (slot + 1) & mask;
+            names[slot] = name;
+            nameTypes[slot] = type;
+        }
+        private static int spread(int hash){
+            return hash ^ (hash >>> 16);
         }
         private void number(){
-            while(isDigit(peek())) advance();
+            current = skip(current, DIGIT);
             //look for fractional part
             if (peek() == '.' && isDigit(peekNext())){
                 //Consume the '.'
-                advance();
-                while (isDigit(peek())) advance();
+                current = skip(current + 1, DIGIT);
+            }else if (current - start <= 15){
+                //whole numbers this short are exact as doubles, no need to parse twice
+                long value = 0;
+                for (int i = start; i < current; i++){
+                    value = value * 10 + (source.charAt(i) - '0');
+                }
+                addToken(NUMBER, (double)value);
+                return;
             }
             addToken(NUMBER,
                 Double.parseDouble(source.substring(start,current)));
         }
 
         private void string(){
-            while (peek() != '"' && !isAtEnd()){
-                if (peek() == '\n') line++;
-                advance();
+            int end = source.indexOf('"', current);
+            //strings may span lines
+            for (int i = current; i < (end < 0 ? length : end); i++){
+                if (source.charAt(i) == '\n') line++;
             }
-            if (isAtEnd()){
+            if (end < 0){
+                current = length;
                 Lox.error(line, "Unterminated String Dude.");
+                return;
             }
             // the closing ".
-            advance();
+            current = end + 1;
 
             // Remove quotes
-            String value = source.substring(start + 1, current -1);
+            String value = StringTable.intern(source.substring(start + 1, current -1));
             addToken(STRING, value);
 
         }
@@ -172,16 +274,20 @@ class Scanner {
             return source.charAt(current);
         }
         private char peekNext(){
-            if (current +1 >= source.length()) return '\0';
+            if (current +1 >= length) return '\0';
             return source.charAt(current + 1);
         }
-        private boolean isAlpha(char c){
-            return (c >= 'a' && c <= 'z') ||
-                   (c >= 'A' && c <= 'Z') ||
-                   c == '_';
+        //the first index from i on of a char that isn't of kind
+        private int skip(int i, byte kind){
+            while (i < length){
+                char c = source.charAt(i);
+                if (c >= 128 || (kinds[c] & kind) == 0) return i;
+                i++;
+            }
+            return i;
         }
-        private boolean isAlphaNumeric(char c){
-            return isAlpha(c) || isDigit(c);
+        private boolean isAlpha(char c){
+            return c < 128 && kinds[c] == NAME;
         }
         private boolean isDigit(char c){
             return c >= '0' && c <= '9';
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Where one run prints and reports its errors. The command line has a
+//single session, the Daemon gives every request its own so concurrent
+//runs don't see each other's errors or output.
+class Session {
+    final OutputBuffer output;
+    final PrintStream err;
+    boolean hadError = false;
+    //tasks started with spawn() report their errors from other threads
+    volatile boolean hadRuntimeError = false;
+    //files the run opened and hasn't closed yet, see closeFiles()
+    final Set<LoxFile> files = ConcurrentHashMap.newKeySet();
+
+    Session(OutputBuffer output, PrintStream err){
+        this.output = output;
+        this.err = err;
+    }
+
+    //at the end of the run, flushes and closes the files the script left open
+    void closeFiles(){
+        for (LoxFile file : files){
+            try{
+                file.close(null);
+            }catch (RuntimeError error){
+                err.println(error.getMessage());
+                hadRuntimeError = true;
+            }
+        }
+    }
+
+    //exit status of the run, as in sysexits.h
+    int status(){
+        if (hadError) return 65;
+        if (hadRuntimeError) return 70;
+        return 0;
+    }
+}
@@ -0,0 +1,374 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Image of the global environment, so a prelude can be run once and later
+interpreters start from its result:
+    jlox --snapshot prelude.img prelude.lox
+    jlox --image prelude.img script.lox
+
+Everything reachable from the globals is written: functions (their
+resolved declarations through AstWriter, and their closures),
+environments, classes, instances, arrays, maps and literals. The file has two
+passes over the object graph so cycles (a closure holding its own
+function, instances pointing at each other) restore correctly:
+  1. a header per object with what its constructor needs
+  2. the contents of environments, instances, arrays and maps
+followed by the global bindings themselves. Natives aren't written, the
+loading interpreter brings its own. A declaration's AST is written with
+the first function that has it and is referred to by its number after
+that, so closures and bound methods of one declaration share it, in the
+file and once loaded.
+*/
+class Snapshot {
+    private static final int MAGIC = 0x4c4f5849; // "LOXI"
+    private static final int VERSION = 5;
+
+    //object kinds
+    private static final byte ENVIRONMENT = 1, FUNCTION = 2, CLASS = 3,
+                              INSTANCE = 4, ARRAY = 5, MAP = 6;
+    //value tags, after the literal tags of AstWriter
+    private static final byte REF = 16, NATIVE = 17, GLOBALS = 18;
+
+    static void save(Interpreter interpreter, Path path) throws IOException{
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path)))){
+            new Writer(interpreter, out).write();
+        }
+    }
+
+    static void load(Interpreter interpreter, Path path) throws IOException{
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))){
+            new Reader(interpreter, in).read();
+        }
+    }
+
+    //names the interpreter defines on its own (clock, Array...)
+    private static Set<String> builtins(){
+        return new Interpreter().globals.bindings().keySet();
+    }
+
+    private static class Writer {
+        private final Interpreter interpreter;
+        private final DataOutputStream out;
+        private final AstWriter ast;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final List<Object> objects = new ArrayList<>();
+        //numbered in the order they're first written
+        private final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+        private final Deque<Object> pending = new ArrayDeque<>();
+        private final Map<Object, String> natives = new IdentityHashMap<>();
+        private final Map<String, Object> globals = new HashMap<>();
+
+        Writer(Interpreter interpreter, DataOutputStream out){
+            this.interpreter = interpreter;
+            this.out = out;
+            this.ast = new AstWriter(out, interpreter);
+        }
+
+        void write() throws IOException{
+            Set<String> builtins = builtins();
+            for (Map.Entry<String, Object> binding : interpreter.globals.bindings().entrySet()){
+                String name = binding.getKey();
+                Object value = binding.getValue();
+                if (builtins.contains(name) && !isLoxValue(value)){
+                    natives.put(value, name);
+                }else{
+                    globals.put(name, value);
+                }
+            }
+
+            for (Object value : globals.values()){
+                discover(value);
+            }
+            while (!pending.isEmpty()){
+                for (Object child : children(pending.pop())){
+                    discover(child);
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(objects.size());
+            for (Object object : objects){
+                writeHeader(object);
+            }
+            for (Object object : objects){
+                writeContents(object);
+            }
+            out.writeInt(globals.size());
+            for (Map.Entry<String, Object> global : globals.entrySet()){
+                ast.writeString(global.getKey());
+                writeValue(global.getValue());
+            }
+        }
+
+        private static boolean isLoxValue(Object value){
+            return value instanceof LoxFunction || value instanceof LoxClass ||
+                value instanceof LoxInstance || value instanceof LoxArray ||
+                value instanceof LoxMap ||
+                !(value instanceof LoxCallable || value instanceof LoxNative);
+        }
+
+        //gives the object an id, after the objects its header refers to
+        private void discover(Object value){
+            if (value == null || value instanceof Boolean || value instanceof Double ||
+                    value instanceof String || ids.containsKey(value) ||
+                    natives.containsKey(value) || value == interpreter.globals){
+                return;
+            }
+            if (value instanceof Environment){
+                discover(((Environment)value).enclosing);
+            }else if (value instanceof LoxFunction){
+                discover(((LoxFunction)value).closure);
+            }else if (value instanceof LoxInstance){
+                discover(((LoxInstance)value).klass);
+            }else if (value instanceof LoxClass){
+                LoxClass klass = (LoxClass)value;
+                discover(klass.superclass);
+                for (LoxMethod method : klass.declared.values()){
+                    discover(method);
+                }
+            }else if (!(value instanceof LoxArray) &&
+                    !(value instanceof LoxMap)){
+                throw new IllegalArgumentException("Can't snapshot " + value + ".");
+            }
+            ids.put(value, objects.size());
+            objects.add(value);
+            pending.push(value);
+        }
+        private List<Object> children(Object object){
+            List<Object> children = new ArrayList<>();
+            if (object instanceof Environment){
+                children.addAll(((Environment)object).bindings().values());
+            }else if (object instanceof LoxInstance){
+                children.addAll(((LoxInstance)object).fields.values());
+            }else if (object instanceof LoxArray){
+                LoxArray array = (LoxArray)object;
+                for (int i = 0; i < array.length(); i++){
+                    children.add(array.get(i));
+                }
+            }else if (object instanceof LoxMap){
+                LoxMap map = (LoxMap)object;
+                LoxArray keys = map.keys();
+                for (int i = 0; i < keys.length(); i++){
+                    children.add(keys.get(i));
+                    children.add(map.get(keys.get(i)));
+                }
+            }
+            return children;
+        }
+
+        private void writeHeader(Object object) throws IOException{
+            if (object instanceof Environment){
+                out.writeByte(ENVIRONMENT);
+                writeValue(((Environment)object).enclosing);
+            }else if (object instanceof LoxFunction){
+                LoxFunction function = (LoxFunction)object;
+                out.writeByte(FUNCTION);
+                Integer declaration = declarations.get(function.declaration);
+                if (declaration != null){
+                    out.writeInt(declaration);
+                }else{
+                    //a number not given yet, the AST follows
+                    out.writeInt(declarations.size());
+                    declarations.put(function.declaration, declarations.size());
+                    ast.writeFunction(function.declaration, function.locals());
+                }
+                writeValue(function.closure);
+                out.writeBoolean(function.isInitializer());
+            }else if (object instanceof LoxClass){
+                LoxClass klass = (LoxClass)object;
+                out.writeByte(CLASS);
+                ast.writeString(klass.name);
+                writeValue(klass.superclass);
+                out.writeInt(klass.declared.size());
+                for (Map.Entry<String, LoxMethod> method : klass.declared.entrySet()){
+                    ast.writeString(method.getKey());
+                    writeValue(method.getValue());
+                }
+            }else if (object instanceof LoxInstance){
+                out.writeByte(INSTANCE);
+                writeValue(((LoxInstance)object).klass);
+            }else if (object instanceof LoxArray){
+                out.writeByte(ARRAY);
+            }else{
+                out.writeByte(MAP);
+            }
+        }
+        private void writeContents(Object object) throws IOException{
+            if (object instanceof Environment){
+                writeBindings(((Environment)object).bindings());
+            }else if (object instanceof LoxInstance){
+                writeBindings(((LoxInstance)object).fields);
+            }else if (object instanceof LoxArray){
+                LoxArray array = (LoxArray)object;
+                out.writeInt(array.length());
+                for (int i = 0; i < array.length(); i++){
+                    writeValue(array.get(i));
+                }
+            }else if (object instanceof LoxMap){
+                LoxMap map = (LoxMap)object;
+                LoxArray keys = map.keys();
+                out.writeInt(keys.length());
+                for (int i = 0; i < keys.length(); i++){
+                    writeValue(keys.get(i));
+                    writeValue(map.get(keys.get(i)));
+                }
+            }
+        }
+        private void writeBindings(Map<String, Object> bindings) throws IOException{
+            out.writeInt(bindings.size());
+            for (Map.Entry<String, Object> binding : bindings.entrySet()){
+                ast.writeString(binding.getKey());
+                writeValue(binding.getValue());
+            }
+        }
+        private void writeValue(Object value) throws IOException{
+            if (value == interpreter.globals){
+                out.writeByte(GLOBALS);
+            }else if (natives.containsKey(value)){
+                out.writeByte(NATIVE);
+                ast.writeString(natives.get(value));
+            }else if (ids.containsKey(value)){
+                out.writeByte(REF);
+                out.writeInt(ids.get(value));
+            }else{
+                ast.writeValue(value);
+            }
+        }
+    }
+
+    private static class Reader {
+        private final Interpreter interpreter;
+        private final DataInputStream in;
+        private final AstReader ast;
+        private final List<Object> objects = new ArrayList<>();
+        private final List<Stmt.Function> declarations = new ArrayList<>();
+
+        Reader(Interpreter interpreter, DataInputStream in){
+            this.interpreter = interpreter;
+            this.in = in;
+            this.ast = new AstReader(in, interpreter);
+        }
+
+        void read() throws IOException{
+            if (in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("Not a Lox image.");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++){
+                objects.add(readHeader());
+            }
+            for (Object object : objects){
+                readContents(object);
+            }
+            int globals = in.readInt();
+            for (int i = 0; i < globals; i++){
+                String name = ast.readString();
+                interpreter.globals.define(name, readValue());
+            }
+        }
+
+        private Object readHeader() throws IOException{
+            byte kind = in.readByte();
+            switch (kind){
+                case ENVIRONMENT:
+                    return new Environment((Environment)readValue());
+                case FUNCTION:{
+                    int number = in.readInt();
+                    if (number == declarations.size()){
+                        //resolved on its own, it may come from a module
+                        declarations.add(ast.readFunction(new ConcurrentHashMap<>()));
+                    }else if (number < 0 || number > declarations.size()){
+                        throw new IOException("Bad declaration " + number);
+                    }
+                    Stmt.Function declaration = declarations.get(number);
+                    Environment closure = (Environment)readValue();
+                    boolean isInitializer = in.readBoolean();
+                    return new LoxFunction(declaration, closure, null, ast.localsOf(declaration),
+                                           isInitializer);
+                }
+                case CLASS:{
+                    String name = ast.readString();
+                    LoxClass superclass = (LoxClass)readValue();
+                    int count = in.readInt();
+                    Map<String, LoxMethod> methods = new HashMap<>();
+                    for (int i = 0; i < count; i++){
+                        String method = ast.readString();
+                        methods.put(method, (LoxFunction)readValue());
+                    }
+                    return new LoxClass(name, superclass, methods);
+                }
+                case INSTANCE:
+                    return new LoxInstance((LoxClass)readValue());
+                case ARRAY:
+                    return new LoxArray();
+                case MAP:
+                    return new LoxMap();
+            }
+            throw new IOException("Bad object kind " + kind);
+        }
+        private void readContents(Object object) throws IOException{
+            if (object instanceof Environment){
+                Environment environment = (Environment)object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++){
+                    String name = ast.readString();
+                    environment.define(name, readValue());
+                }
+            }else if (object instanceof LoxInstance){
+                LoxInstance instance = (LoxInstance)object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++){
+                    String name = ast.readString();
+                    instance.fields.put(name, readValue());
+                }
+            }else if (object instanceof LoxArray){
+                LoxArray array = (LoxArray)object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++){
+                    array.push(readValue());
+                }
+            }else if (object instanceof LoxMap){
+                LoxMap map = (LoxMap)object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++){
+                    Object key = readValue();
+                    map.put(key, readValue());
+                }
+            }
+        }
+        private Object readValue() throws IOException{
+            in.mark(1);
+            byte tag = in.readByte();
+            switch (tag){
+                case GLOBALS:
+                    return interpreter.globals;
+                case NATIVE:
+                    return interpreter.globals.bindings().get(ast.readString());
+                case REF:
+                    return objects.get(in.readInt());
+            }
+            in.reset();
+            return ast.readValue();
+        }
+    }
+}
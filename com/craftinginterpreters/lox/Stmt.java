@@ -9,6 +9,7 @@ abstract class Stmt {
         R visitExpressionStmt(Expression stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
+        R visitImportStmt(Import stmt);
         R visitPrintStmt(Print stmt);
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
@@ -27,8 +28,9 @@ abstract class Stmt {
         final List<Stmt> statements;
     }
     static class Class extends Stmt {
-        Class(Token name, List<Stmt.Function> methods) {
+        Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
             this.name = name;
+            this.superclass = superclass;
             this.methods = methods;
         }
 
@@ -38,6 +40,7 @@ abstract class Stmt {
         }
 
         final Token name;
+        final Expr.Variable superclass;
         final List<Stmt.Function> methods;
     }
     static class Expression extends Stmt {
@@ -50,7 +53,7 @@ abstract class Stmt {
             return visitor.visitExpressionStmt(this);
         }
 
-        final Expr expression;
+        Expr expression;
     }
     static class Function extends Stmt {
         Function(Token name, List<Token> params, List<Stmt> body) {
@@ -80,12 +83,28 @@ abstract class Stmt {
             return visitor.visitIfStmt(this);
         }
 
-        final Expr condition;
-        final Stmt thenBranch;
-        final Stmt elseBranch;
+        Expr condition;
+        Stmt thenBranch;
+        Stmt elseBranch;
+    }
+    static class Import extends Stmt {
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        final Token keyword;
+        final Token path;
+        Module module;
     }
     static class Print extends Stmt {
-        Print(Expr expression) {
+        Print(Token keyword, Expr expression) {
+            this.keyword = keyword;
             this.expression = expression;
         }
 
@@ -94,7 +113,8 @@ abstract class Stmt {
             return visitor.visitPrintStmt(this);
         }
 
-        final Expr expression;
+        final Token keyword;
+        Expr expression;
     }
     static class Return extends Stmt {
         Return(Token keyword, Expr value) {
@@ -108,7 +128,7 @@ abstract class Stmt {
         }
 
         final Token keyword;
-        final Expr value;
+        Expr value;
     }
     static class Var extends Stmt {
         Var(Token name, Expr initializer) {
@@ -122,7 +142,7 @@ abstract class Stmt {
         }
 
         final Token name;
-        final Expr initializer;
+        Expr initializer;
     }
     static class While extends Stmt {
         While(Expr condition, Stmt body) {
@@ -135,8 +155,8 @@ abstract class Stmt {
             return visitor.visitWhileStmt(this);
         }
 
-        final Expr condition;
-        final Stmt body;
+        Expr condition;
+        Stmt body;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,39 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+//Strings of a script that are compared or used as keys again and again
+//(string literals, names of variables and fields) go through this table,
+//so equal ones are the same object and isEqual or a HashMap lookup is
+//decided on identity. Entries are weak, a string nothing else refers to
+//anymore is dropped with its entry.
+//Strings a script computes are interned only when a LoxMap stores one as
+//a new key. Looking one up in the table costs about what the equals it
+//might save does, so a computed string is still compared by contents.
+//The table is split in stripes, each with its own lock, so modules
+//scanned in parallel rarely wait on each other.
+class StringTable {
+    private static final int STRIPES = 32;
+    @SuppressWarnings("unchecked")
+    private static final Map<String, WeakReference<String>>[] stripes = new Map[STRIPES];
+    static{
+        for (int i = 0; i < STRIPES; i++){
+            stripes[i] = new WeakHashMap<>();
+        }
+    }
+
+    static String intern(String string){
+        //the top bits, WeakHashMap indexes with the low ones
+        int hash = string.hashCode() * 0x9E3779B9;
+        Map<String, WeakReference<String>> strings = stripes[hash >>> 27];
+        synchronized (strings){
+            WeakReference<String> entry = strings.get(string);
+            String interned = entry != null ? entry.get() : null;
+            if (interned != null) return interned;
+            strings.put(string, new WeakReference<>(string));
+            return string;
+        }
+    }
+}
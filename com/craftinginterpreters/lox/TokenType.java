@@ -14,7 +14,7 @@ enum TokenType {
 
    //keywords
     AND,CLASS,ELSE,FALSE,FUN,FOR,IF,NIL, OR,
-    PRINT,RETURN,SUPER,THIS,TRUE,VAR,WHILE,
+    PRINT,RETURN,SUPER,THIS,TRUE,VAR,WHILE,IMPORT,
 
     EOF
 }
@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+//Instrumenter tool behind --trace: prints calls, returns, variable writes
+//and errors as they happen, indented by call depth.
+class Tracer implements Instrumenter.Listener {
+    private final PrintStream out;
+    //lines of the calls in progress, the trace goes back to them on return
+    private final Deque<Integer> callers = new ArrayDeque<>();
+    private int line = 0;
+
+    Tracer(PrintStream out){
+        this.out = out;
+    }
+
+    @Override
+    public void statement(Stmt stmt, int line, Interpreter interpreter){
+        this.line = line;
+    }
+    @Override
+    public void callEnter(Expr.Call call, Interpreter interpreter){
+        print("call " + Debugger.describe(call));
+        callers.push(line);
+    }
+    @Override
+    public void callExit(Expr.Call call, Object result, Interpreter interpreter){
+        line = callers.pop();
+        print("return " + Interpreter.stringify(result) + " from " + Debugger.describe(call));
+    }
+    @Override
+    public void variableWrite(Token name, Object value, Interpreter interpreter){
+        print(name.lexeme + " = " + Interpreter.stringify(value));
+    }
+    @Override
+    public void error(RuntimeError error, Interpreter interpreter){
+        print("error: " + error.getMessage());
+    }
+
+    private void print(String event){
+        //keep the trace in order with what the script prints
+        Lox.session().output.flush();
+        StringBuilder text = new StringBuilder("[line " + line + "] ");
+        for (int i = 0; i < callers.size(); i++) text.append("  ");
+        out.println(text.append(event));
+    }
+}
@@ -2,6 +2,7 @@ package com.craftinginterpreters.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -15,9 +16,11 @@ public class GenerateAst {
         String outputDir = args[0];
         //String outputDir = "/Users/roshi/Code/Interpreter/com/craftinginterpreters/lox";
         //ClassName ':' list of fields comma seperated (eg. Type name)
+        //fields after '|' aren't part of the constructor and stay mutable,
+        //the interpreter fills them in at run time
         //Creates the Expression syntax tree
-        defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign    : Token name, Expr value", 
+        List<String> exprTypes = Arrays.asList(
+            "Assign    : Token name, Expr value | Cell cell",
             "Binary    : Expr left, Token operator, Expr right",
             "Call      : Expr callee, Token paren, List<Expr> arguments",
             "Get       : Expr object, Token name",
@@ -25,23 +28,31 @@ public class GenerateAst {
             "Literal   : Object value",
             "Logical   : Expr left, Token operator, Expr right",
             "Set       : Expr object, Token name, Expr value",
+            "Super     : Token keyword, Token method | LoxClass.SuperMethod cache",
+            "This      : Token keyword",
             "Unary     : Token operator, Expr right",
-            "Variable  : Token name"
-        ));
+            "Variable  : Token name | Cell cell"
+        );
+        defineAst(outputDir, "Expr", exprTypes);
         //Creates the Statement syntax tree
-        defineAst(outputDir, "Stmt", Arrays.asList(
+        List<String> stmtTypes = Arrays.asList(
             "Block     : List<Stmt> statements",
-            "Class     : Token name, List<Stmt.Function> methods",
+            "Class     : Token name, Expr.Variable superclass, " +
+                        "List<Stmt.Function> methods",
             "Expression: Expr expression",
             "Function  : Token name, List<Token> params, " +
                         "List<Stmt> body",
             "If        : Expr condition, Stmt thenBranch, " +
                         "Stmt elseBranch",
-            "Print     : Expr expression",
+            "Import    : Token keyword, Token path | Module module",
+            "Print     : Token keyword, Expr expression",
             "Return    : Token keyword, Expr value",
             "Var       : Token name, Expr initializer",
             "While     : Expr condition, Stmt body"
-        ));
+        );
+        defineAst(outputDir, "Stmt", stmtTypes);
+        //and both flattened into arrays, see FlatAst
+        defineFlat(outputDir, exprTypes, stmtTypes);
     }
     private static void defineAst( String outputDir, String baseName, List<String> types) throws IOException
     {
@@ -59,7 +70,12 @@ public class GenerateAst {
         for (String type : types){
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className,fields);
+            String runtimeFields = null;
+            if (fields.contains("|")){
+                runtimeFields = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, runtimeFields);
         }
         // The base accept() method
         writer.println();
@@ -67,7 +83,8 @@ public class GenerateAst {
         writer.println("}");
         writer.close();
     }
-    private static void defineType( PrintWriter writer, String baseName, String className, String fieldList){
+    private static void defineType( PrintWriter writer, String baseName, String className, String fieldList,
+                                    String runtimeFieldList){
         writer.println("    static class " + className + " extends " + baseName + " {");
         //constructor
         writer.println("        " + className + "(" + fieldList + ") {");
@@ -89,7 +106,16 @@ public class GenerateAst {
         //Fields
         writer.println();
         for (String field: fields){
-            writer.println("        final " + field + ";");
+            //single child nodes stay mutable so the Instrumenter can swap
+            //probes in and out of their slot
+            String type = field.split(" ")[0];
+            boolean child = type.equals("Expr") || type.equals("Stmt");
+            writer.println("        " + (child ? "" : "final ") + field + ";");
+        }
+        if (runtimeFieldList != null){
+            for (String field: runtimeFieldList.split(", ")){
+                writer.println("        " + field + ";");
+            }
         }
         writer.println("    }");
     }
@@ -105,4 +131,144 @@ public class GenerateAst {
         writer.println("    }");
         
     }
+    //Flat.java, the slots each kind of node has in a FlatAst and the
+    //visitor that writes trees there
+    private static void defineFlat(String outputDir, List<String> exprTypes, List<String> stmtTypes)
+            throws IOException{
+        PrintWriter writer = new PrintWriter(outputDir + "/Flat.java", "UTF-8");
+
+        writer.println("package com.craftinginterpreters.lox;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println("import java.util.Map;");
+        writer.println();
+        writer.println("//Where the fields of each kind of node are in a FlatAst, counted from the");
+        writer.println("//node's header, and the visitor that writes Expr and Stmt trees there.");
+        writer.println("//Generated by GenerateAst along with Expr and Stmt");
+        writer.println("final class Flat {");
+        int kind = 0;
+        for (String type : exprTypes){
+            defineFlatKind(writer, type, kind++);
+        }
+        for (String type : stmtTypes){
+            defineFlatKind(writer, type, kind++);
+        }
+        writer.println();
+        writer.println("    static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+        writer.println("        private final FlatAst ast;");
+        writer.println("        //the Resolver's depths, which go into the headers of the nodes");
+        writer.println("        private final Map<Expr, Integer> locals;");
+        writer.println();
+        writer.println("        Encoder(FlatAst ast, Map<Expr, Integer> locals){");
+        writer.println("            this.ast = ast;");
+        writer.println("            this.locals = locals;");
+        writer.println("        }");
+        writer.println();
+        writer.println("        //the index of the node, -1 for none");
+        writer.println("        int encode(Expr expr){");
+        writer.println("            return expr == null ? -1 : expr.accept(this);");
+        writer.println("        }");
+        writer.println("        int encode(Stmt stmt){");
+        writer.println("            return stmt == null ? -1 : stmt.accept(this);");
+        writer.println("        }");
+        writer.println("        //a list is its size followed by its nodes, or its tokens");
+        writer.println("        int exprs(List<Expr> exprs){");
+        writer.println("            int list = ast.list(exprs.size(), 1);");
+        writer.println("            for (int i = 0; i < exprs.size(); i++){");
+        writer.println("                ast.set(list + 1 + i, encode(exprs.get(i)));");
+        writer.println("            }");
+        writer.println("            return list;");
+        writer.println("        }");
+        writer.println("        int stmts(List<? extends Stmt> stmts){");
+        writer.println("            int list = ast.list(stmts.size(), 1);");
+        writer.println("            for (int i = 0; i < stmts.size(); i++){");
+        writer.println("                ast.set(list + 1 + i, encode(stmts.get(i)));");
+        writer.println("            }");
+        writer.println("            return list;");
+        writer.println("        }");
+        writer.println("        int tokens(List<Token> tokens){");
+        writer.println("            int list = ast.list(tokens.size(), 2);");
+        writer.println("            for (int i = 0; i < tokens.size(); i++){");
+        writer.println("                ast.token(list + 1 + 2 * i, tokens.get(i));");
+        writer.println("            }");
+        writer.println("            return list;");
+        writer.println("        }");
+        for (String type : exprTypes){
+            defineFlatEncoder(writer, "Expr", type);
+        }
+        for (String type : stmtTypes){
+            defineFlatEncoder(writer, "Stmt", type);
+        }
+        writer.println("    }");
+        writer.println("}");
+        writer.close();
+    }
+    //the kind's number, the slot of each field and the node's size
+    private static void defineFlatKind(PrintWriter writer, String type, int kind){
+        String className = type.split(":")[0].trim();
+        String prefix = constantName(className);
+        writer.println();
+        writer.println("    static final int " + prefix + " = " + kind + ";");
+        StringBuilder slots = new StringBuilder("    static final int ");
+        //the header is slot 0
+        int slot = 1;
+        for (String field : flatFields(type)){
+            String[] parts = field.split(" ");
+            slots.append(prefix + "_" + constantName(parts[1]) + " = " + slot + ", ");
+            //a token is its lexeme and its line and type
+            slot += parts[0].equals("Token") ? 2 : 1;
+        }
+        slots.append(prefix + "_SIZE = " + slot + ";");
+        writer.println(slots);
+    }
+    private static void defineFlatEncoder(PrintWriter writer, String baseName, String type){
+        String className = type.split(":")[0].trim();
+        String prefix = constantName(className);
+        String parameter = baseName.toLowerCase();
+        List<String> runtimeFields = new ArrayList<>();
+        if (type.contains("|")){
+            runtimeFields = Arrays.asList(type.split("\\|")[1].trim().split(", "));
+        }
+        writer.println("        @Override");
+        writer.println("        public Integer visit" + className + baseName + "(" +
+            baseName + "." + className + " " + parameter + "){");
+        writer.println("            int node = ast.node(" + prefix + ", " + prefix + "_SIZE, " +
+            (baseName.equals("Expr") ? "locals.get(" + parameter + ")" : "null") + ");");
+        for (String field : flatFields(type)){
+            String fieldType = field.split(" ")[0];
+            String name = field.split(" ")[1];
+            String slot = "node + " + prefix + "_" + constantName(name);
+            String value = parameter + "." + name;
+            if (runtimeFields.contains(field)){
+                writer.println("            ast.set(" + slot + ", ast.runtime(" + value + "));");
+            }else if (fieldType.equals("Token")){
+                writer.println("            ast.token(" + slot + ", " + value + ");");
+            }else if (fieldType.startsWith("List<Token")){
+                writer.println("            ast.set(" + slot + ", tokens(" + value + "));");
+            }else if (fieldType.startsWith("List<Expr")){
+                writer.println("            ast.set(" + slot + ", exprs(" + value + "));");
+            }else if (fieldType.startsWith("List<Stmt")){
+                writer.println("            ast.set(" + slot + ", stmts(" + value + "));");
+            }else if (fieldType.startsWith("Expr") || fieldType.startsWith("Stmt")){
+                writer.println("            ast.set(" + slot + ", encode(" + value + "));");
+            }else{
+                writer.println("            ast.set(" + slot + ", ast.constant(" + value + "));");
+            }
+        }
+        writer.println("            return node;");
+        writer.println("        }");
+    }
+    //the fields of a type, runtime ones last
+    private static List<String> flatFields(String type){
+        String fields = type.split(":")[1].replace("|", ",");
+        List<String> list = new ArrayList<>();
+        for (String field : fields.split(",")){
+            list.add(field.trim());
+        }
+        return list;
+    }
+    //thenBranch is THEN_BRANCH
+    private static String constantName(String name){
+        return name.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
 }
@@ -0,0 +1,13 @@
+#!/bin/sh
+# Functions from an imported module keep their resolved locals through a
+# snapshot: main.lox imports lib/a.lox, its image is loaded to run use.lox.
+# Run from the repository root: sh test/snapshot_module/run.sh
+set -e
+dir=test/snapshot_module
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -encoding UTF-8 -nowarn -d "$out/classes" com/craftinginterpreters/lox/*.java
+java -cp "$out/classes" com.craftinginterpreters.lox.Lox --snapshot "$out/p.img" "$dir/main.lox"
+java -cp "$out/classes" com.craftinginterpreters.lox.Lox --image "$out/p.img" "$dir/use.lox" > "$out/actual.txt"
+diff "$dir/expected.txt" "$out/actual.txt"
+echo "snapshot_module: ok"